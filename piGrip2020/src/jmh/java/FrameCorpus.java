@@ -0,0 +1,116 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// **************************************************************************
+// *
+// * FrameCorpus Class
+// *
+// * The frames the benchmarks run on. By default these are synthetic frames
+// * (see SyntheticFrames) at each resolution, strip count and noise level.
+// *
+// * Recorded frames are used with "-p source=recorded" on the benchmark jar
+// * (java -jar build/libs/*-jmh.jar -p source=recorded). Every image in the
+// * directory named by the vision.corpus system property (src/jmh/resources/
+// * frames by default) is scaled to the resolution being benchmarked and the
+// * benchmarks cycle through them. The strips and noise parameters don't
+// * apply to recorded frames.
+// *
+// **************************************************************************
+@State(Scope.Benchmark)
+public class FrameCorpus {
+
+  static {
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+  }
+
+  @Param({ "synthetic" })
+  public String source;
+
+  @Param({ "320x240", "640x480" })
+  public String resolution;
+
+  // Number of vision tape strips in the frame
+  @Param({ "0", "2", "4" })
+  public int strips;
+
+  // Standard deviation of the gaussian noise added to each pixel
+  @Param({ "0", "8", "32" })
+  public double noise;
+
+  private final List<Mat> frames = new ArrayList<>();
+  private int next = 0;
+
+  @Setup(Level.Trial)
+  public void load() {
+    String[] size = resolution.split("x");
+    int width = Integer.parseInt(size[0]);
+    int height = Integer.parseInt(size[1]);
+
+    if ("recorded".equals(source)) {
+      File directory = new File(System.getProperty("vision.corpus", "src/jmh/resources/frames"));
+      File[] files = directory.listFiles();
+
+      if (files != null) {
+        Arrays.sort(files);
+
+        for (File file : files) {
+          Mat image = Imgcodecs.imread(file.getPath());
+          if (image.empty()) {
+            continue;
+          }
+          Mat frame = new Mat();
+          Imgproc.resize(image, frame, new Size(width, height));
+          image.release();
+          frames.add(frame);
+        }
+      }
+
+      if (frames.isEmpty()) {
+        throw new IllegalStateException("No recorded frames in " + directory.getAbsolutePath());
+      }
+    } else {
+      frames.add(SyntheticFrames.create(width, height, strips, noise));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void release() {
+    for (Mat frame : frames) {
+      frame.release();
+    }
+    frames.clear();
+  }
+
+  // **************************************************************************
+  // *
+  // * The next frame, cycling through the corpus
+  // *
+  // **************************************************************************
+  public Mat nextFrame() {
+    Mat frame = frames.get(next);
+    next = (next + 1) % frames.size();
+    return frame;
+  }
+}
@@ -0,0 +1,109 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// **************************************************************************
+// *
+// * PipelineBenchmark Class
+// *
+// * Times MyPipeline.process() and each of its steps on its own. The steps
+// * are run on the outputs of a process() call made on the same frame during
+// * setup, so each one sees exactly the input it would in the pipeline.
+// * The striped threshold is timed on the same input as the serial one, and
+// * the blob engine on the same mask as findContours and filterContours.
+// *
+// **************************************************************************
+@State(Scope.Thread)
+public class PipelineBenchmark {
+
+  private MyPipeline pipeline;
+  private final ParallelThreshold parallelThreshold = new ParallelThreshold("benchmark", Main.THRESHOLD_STRIPES);
+  private final Mat resizeOutput = new Mat();
+  private final Mat thresholdOutput = new Mat();
+  private final ArrayList<MatOfPoint> contours = new ArrayList<>();
+  private final ArrayList<MatOfPoint> filteredContours = new ArrayList<>();
+  private final BlobExtractor blobExtractor = new BlobExtractor();
+  private final ArrayList<ContourGeometry> blobs = new ArrayList<>();
+  private final Point offset = new Point();
+  private Mat frame;
+
+  @Setup(Level.Iteration)
+  public void setUp(FrameCorpus corpus) {
+    pipeline = new MyPipeline(Main.FOLD_TARGET_SHAPE_INTO_FILTER);
+    frame = corpus.nextFrame();
+    pipeline.process(frame);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    for (MatOfPoint contour : contours) {
+      contour.release();
+    }
+    resizeOutput.release();
+    thresholdOutput.release();
+  }
+
+  @Benchmark
+  public MyPipeline process(FrameCorpus corpus) {
+    pipeline.process(corpus.nextFrame());
+    return pipeline;
+  }
+
+  @Benchmark
+  public Mat resizeImage() {
+    pipeline.resizeImage(frame, MyPipeline.RESIZE_IMAGE_WIDTH, MyPipeline.RESIZE_IMAGE_HEIGHT, Imgproc.INTER_CUBIC,
+        resizeOutput);
+    return resizeOutput;
+  }
+
+  @Benchmark
+  public Mat rgbThreshold() {
+    VisionParameters parameters = pipeline.parameters();
+    pipeline.rgbThreshold(pipeline.resizeImageOutput(), parameters.red(), parameters.green(), parameters.blue(),
+        thresholdOutput);
+    return thresholdOutput;
+  }
+
+  @Benchmark
+  public Mat parallelRgbThreshold() {
+    VisionParameters parameters = pipeline.parameters();
+    parallelThreshold.threshold(pipeline.resizeImageOutput(), parameters.red(), parameters.green(),
+        parameters.blue(), thresholdOutput);
+    return thresholdOutput;
+  }
+
+  @Benchmark
+  public ArrayList<MatOfPoint> findContours() {
+    pipeline.findContours(pipeline.rgbThresholdOutput(), false, offset, contours);
+    return contours;
+  }
+
+  @Benchmark
+  public ArrayList<MatOfPoint> filterContours() {
+    pipeline.filterContours(pipeline.findContoursOutput(), pipeline.filterContoursPlan, filteredContours);
+    return filteredContours;
+  }
+
+  @Benchmark
+  public ArrayList<ContourGeometry> extractBlobs() {
+    blobExtractor.extract(pipeline.rgbThresholdOutput(), offset, pipeline.filterContoursPlan, blobs);
+    return blobs;
+  }
+}
@@ -0,0 +1,74 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+// **************************************************************************
+// *
+// * TargetAnalysisBenchmark Class
+// *
+// * Times the target logic in Main that runs on the pipeline's output:
+// * classifying the filtered contours, picking the target pair out of them
+// * and the whole analyzeFrame() call (including the NetworkTables writes,
+// * to a local instance that isn't connected to anything).
+// *
+// * analyzeTargets() leaves the classified target lists as they are, so the
+// * contours are classified once per iteration and it's timed on its own.
+// *
+// **************************************************************************
+@State(Scope.Thread)
+public class TargetAnalysisBenchmark {
+
+  private NetworkTableInstance ntinst;
+  private Main.VisionContext context;
+  private MyPipeline pipeline;
+  private long frameId = 0;
+
+  @Setup(Level.Trial)
+  public void setUpContext() {
+    ntinst = NetworkTableInstance.create();
+    context = Main.createAnalysisContext(ntinst, "benchmark", "benchmark");
+  }
+
+  @Setup(Level.Iteration)
+  public void setUpPipeline(FrameCorpus corpus) {
+    pipeline = new MyPipeline(Main.FOLD_TARGET_SHAPE_INTO_FILTER);
+    pipeline.process(corpus.nextFrame());
+    Main.classifyTargets(context, pipeline);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    ntinst.close();
+  }
+
+  @Benchmark
+  public Main.VisionContext classifyTargets() {
+    Main.classifyTargets(context, pipeline);
+    return context;
+  }
+
+  @Benchmark
+  public boolean analyzeTargets() {
+    return Main.analyzeTargets(context, pipeline.parameters(), pipeline.processingWidth());
+  }
+
+  @Benchmark
+  public TargetingResult analyzeFrame() {
+    Main.analyzeFrame(context, pipeline, ++frameId, NetworkTablesJNI.now(), context.result);
+    return context.result;
+  }
+}
@@ -0,0 +1,268 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+// **************************************************************************
+// *
+// * BlobExtractor Class
+// *
+// * Finds the blobs in a threshold mask by connected component labelling, as
+// * an alternative to findContours followed by the contour filter. We only
+// * use the strips as blobs (bounding box, area and rotated rectangle), so
+// * there's no need for OpenCV to trace every contour and hand us its points.
+// *
+// * The mask is copied out of native memory once and split into runs of set
+// * pixels, row by row. Each run is joined to the runs it touches in the row
+// * above (8-connected, like findContours) with a union-find. The pixel count
+// * of each blob is summed from its runs in the same pass, so it costs
+// * nothing per pixel.
+// *
+// * Each blob is then measured with a ContourGeometry loaded with its run
+// * end points and run through the same ContourFilter as the contours. Blobs
+// * have no holes, so unlike findContours with RETR_LIST, the inside edge of
+// * a ring is never reported as a blob of its own.
+// *
+// * The arrays grow to fit the busiest mask seen and are reused, so a frame
+// * doesn't allocate once they're big enough.
+// *
+// **************************************************************************
+public final class BlobExtractor {
+
+  private byte[] pixels = new byte[0];
+
+  // Runs of set pixels, in row order
+  private int runCount;
+  private int[] runY = new int[256];
+  private int[] runStart = new int[256];
+  private int[] runEnd = new int[256];
+  private int[] runParent = new int[256];
+  private int[] runBlob = new int[256];
+
+  // Per blob sums, indexed by blob number
+  private int blobCount;
+  private int[] blobRuns = new int[64];
+  private int[] blobFirstRun = new int[64];
+  private double[] blobPixels = new double[64];
+
+  // Run end points grouped by blob (x0, y0, x1, y1, ...)
+  private int[] endPoints = new int[512];
+
+  private final ArrayList<ContourGeometry> geometryPool = new ArrayList<>();
+
+  // **************************************************************************
+  // *
+  // * Label a CV_8UC1 mask and add the geometry of every blob that passes the
+  // * filter to output. The offset is added to every coordinate, like
+  // * findContours' offset.
+  // *
+  // **************************************************************************
+  public void extract(Mat mask, Point offset, ContourFilter filter, List<ContourGeometry> output) {
+    output.clear();
+
+    int rows = mask.rows();
+    int cols = mask.cols();
+    int size = rows * cols;
+    if (size == 0) {
+      return;
+    }
+
+    if (pixels.length < size) {
+      pixels = new byte[size];
+    }
+
+    // One JNI crossing for the whole mask. A submat isn't continuous, but
+    // get() copies it row by row into a packed array all the same.
+    mask.get(0, 0, pixels);
+
+    findRuns(rows, cols);
+    sumBlobs();
+    measureBlobs((int) offset.x, (int) offset.y, filter, output);
+  }
+
+  // **************************************************************************
+  // *
+  // * Split the mask into runs and join each run to the runs it touches in
+  // * the row above
+  // *
+  // **************************************************************************
+  private void findRuns(int rows, int cols) {
+    runCount = 0;
+    int previousRowStart = 0;
+    int previousRowEnd = 0;
+
+    for (int y = 0; y < rows; y++) {
+      int rowOffset = y * cols;
+      int rowStart = runCount;
+      int above = previousRowStart;
+      int x = 0;
+
+      while (x < cols) {
+        if (pixels[rowOffset + x] == 0) {
+          x++;
+          continue;
+        }
+
+        int start = x;
+        while ((x < cols) && (pixels[rowOffset + x] != 0)) {
+          x++;
+        }
+        int end = x - 1;
+
+        int run = addRun(y, start, end);
+
+        // Runs above that end before this one (diagonals included) can't touch
+        // it or any later run in this row
+        while ((above < previousRowEnd) && (runEnd[above] < start - 1)) {
+          above++;
+        }
+        for (int i = above; (i < previousRowEnd) && (runStart[i] <= end + 1); i++) {
+          union(run, i);
+        }
+      }
+
+      previousRowStart = rowStart;
+      previousRowEnd = runCount;
+    }
+  }
+
+  private int addRun(int y, int start, int end) {
+    if (runCount == runY.length) {
+      int capacity = 2 * runCount;
+      runY = grow(runY, capacity);
+      runStart = grow(runStart, capacity);
+      runEnd = grow(runEnd, capacity);
+      runParent = grow(runParent, capacity);
+      runBlob = grow(runBlob, capacity);
+    }
+
+    runY[runCount] = y;
+    runStart[runCount] = start;
+    runEnd[runCount] = end;
+    runParent[runCount] = runCount;
+    return runCount++;
+  }
+
+  private int find(int run) {
+    while (runParent[run] != run) {
+      runParent[run] = runParent[runParent[run]];
+      run = runParent[run];
+    }
+    return run;
+  }
+
+  // The earlier run becomes the root, so a blob's root is its first run
+  private void union(int a, int b) {
+    int rootA = find(a);
+    int rootB = find(b);
+    if (rootA < rootB) {
+      runParent[rootB] = rootA;
+    } else if (rootB < rootA) {
+      runParent[rootA] = rootB;
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Number the blobs and sum each one's pixel count from its runs
+  // *
+  // **************************************************************************
+  private void sumBlobs() {
+    blobCount = 0;
+
+    for (int run = 0; run < runCount; run++) {
+      int root = find(run);
+
+      int blob;
+      if (root == run) {
+        blob = newBlob();
+      } else {
+        blob = runBlob[root];
+      }
+      runBlob[run] = blob;
+
+      blobRuns[blob]++;
+      blobPixels[blob] += runEnd[run] - runStart[run] + 1;
+    }
+
+    // Where each blob's runs start in endPoints, two points per run
+    int runs = 0;
+    for (int blob = 0; blob < blobCount; blob++) {
+      blobFirstRun[blob] = runs;
+      runs += blobRuns[blob];
+    }
+
+    if (endPoints.length < 4 * runs) {
+      endPoints = new int[8 * runs];
+    }
+  }
+
+  private int newBlob() {
+    if (blobCount == blobRuns.length) {
+      int capacity = 2 * blobCount;
+      blobRuns = grow(blobRuns, capacity);
+      blobFirstRun = grow(blobFirstRun, capacity);
+      blobPixels = grow(blobPixels, capacity);
+    }
+
+    int blob = blobCount++;
+    blobRuns[blob] = 0;
+    blobPixels[blob] = 0.0;
+    return blob;
+  }
+
+  // **************************************************************************
+  // *
+  // * Gather each blob's run end points, then measure and filter the blobs
+  // *
+  // **************************************************************************
+  private void measureBlobs(int offsetX, int offsetY, ContourFilter filter, List<ContourGeometry> output) {
+    // blobFirstRun is used as each blob's fill position, then put back
+    for (int run = 0; run < runCount; run++) {
+      int slot = blobFirstRun[runBlob[run]]++;
+      int y = runY[run] + offsetY;
+      endPoints[4 * slot] = runStart[run] + offsetX;
+      endPoints[4 * slot + 1] = y;
+      endPoints[4 * slot + 2] = runEnd[run] + offsetX;
+      endPoints[4 * slot + 3] = y;
+    }
+
+    for (int blob = 0; blob < blobCount; blob++) {
+      blobFirstRun[blob] -= blobRuns[blob];
+    }
+
+    for (int blob = 0; blob < blobCount; blob++) {
+      if (geometryPool.size() == output.size()) {
+        geometryPool.add(new ContourGeometry());
+      }
+
+      // The slot is only claimed if the blob is kept
+      ContourGeometry geometry = geometryPool.get(output.size());
+      geometry.loadBlob(endPoints, 2 * blobFirstRun[blob], 2 * blobRuns[blob], blobPixels[blob]);
+      if (filter.accept(geometry)) {
+        output.add(geometry);
+      }
+    }
+  }
+
+  private static int[] grow(int[] array, int capacity) {
+    int[] grown = new int[capacity];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+
+  private static double[] grow(double[] array, int capacity) {
+    double[] grown = new double[capacity];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+}
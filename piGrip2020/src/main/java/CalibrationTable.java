@@ -0,0 +1,273 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/*
+   Calibration file JSON format:
+   {
+       "samples": [                           // at least two, any order
+           [<x>, <y>],
+           ...
+       ],
+       "interpolation": <"linear" or "monotone"> // optional, "linear"
+       "bounds": [<min x>, <max x>]              // optional, the sample range
+   }
+ */
+
+// **************************************************************************
+// *
+// * CalibrationTable Class
+// *
+// * A curve measured at a set of points (e.g., pixels per inch at each
+// * distance to the target) that can be looked up anywhere in between. The
+// * samples are kept in sorted primitive arrays and found with a binary
+// * search, so a lookup is O(log n) and never allocates.
+// *
+// * Between samples the curve is either linear or a monotone cubic
+// * (Fritsch-Carlson), which is smooth but never overshoots the samples.
+// * Outside the samples it's extended in a straight line, but only as far as
+// * the bounds. Lookups outside the bounds return NaN.
+// *
+// **************************************************************************
+public final class CalibrationTable {
+
+  public static final int LINEAR = 0;
+  public static final int MONOTONE = 1;
+
+  private final double[] xs;
+  private final double[] ys;
+
+  // Slope at each sample, for monotone interpolation and extrapolation
+  private final double[] slopes;
+
+  private final int interpolation;
+  private final double minX;
+  private final double maxX;
+
+  // **************************************************************************
+  // *
+  // * The samples don't need to be sorted. Points can be looked up between
+  // * minX and maxX, which may be outside the samples.
+  // *
+  // **************************************************************************
+  public CalibrationTable(double[] x, double[] y, int interpolation, double minX, double maxX) {
+    if ((x.length != y.length) || (x.length < 2)) {
+      throw new IllegalArgumentException("a calibration table needs at least two samples, x and y paired");
+    }
+
+    int count = x.length;
+    Integer[] order = new Integer[count];
+    for (int i = 0; i < count; i++) {
+      order[i] = i;
+    }
+    Arrays.sort(order, (a, b) -> Double.compare(x[a], x[b]));
+
+    xs = new double[count];
+    ys = new double[count];
+    for (int i = 0; i < count; i++) {
+      xs[i] = x[order[i]];
+      ys[i] = y[order[i]];
+      if ((i > 0) && (xs[i] == xs[i - 1])) {
+        throw new IllegalArgumentException("duplicate calibration sample at " + xs[i]);
+      }
+    }
+
+    this.interpolation = interpolation;
+    this.minX = minX;
+    this.maxX = maxX;
+
+    slopes = new double[count];
+    if (interpolation == MONOTONE) {
+      computeMonotoneSlopes();
+    } else {
+      for (int i = 0; i < count - 1; i++) {
+        slopes[i] = secant(i);
+      }
+      slopes[count - 1] = secant(count - 2);
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * A table that can only be looked up within its samples
+  // *
+  // **************************************************************************
+  public CalibrationTable(double[] x, double[] y, int interpolation) {
+    this(x, y, interpolation, min(x), max(x));
+  }
+
+  // **************************************************************************
+  // *
+  // * Load a table from a JSON object in the calibration file format above
+  // *
+  // **************************************************************************
+  public static CalibrationTable fromJson(JsonObject json) {
+    JsonArray samples = json.getAsJsonArray("samples");
+    if (samples == null) {
+      throw new IllegalArgumentException("calibration has no samples");
+    }
+
+    double[] x = new double[samples.size()];
+    double[] y = new double[samples.size()];
+    for (int i = 0; i < samples.size(); i++) {
+      JsonArray sample = samples.get(i).getAsJsonArray();
+      x[i] = sample.get(0).getAsDouble();
+      y[i] = sample.get(1).getAsDouble();
+    }
+
+    int interpolation = LINEAR;
+    if (json.has("interpolation")) {
+      String str = json.get("interpolation").getAsString();
+      if ("monotone".equalsIgnoreCase(str)) {
+        interpolation = MONOTONE;
+      } else if (!"linear".equalsIgnoreCase(str)) {
+        throw new IllegalArgumentException("could not understand interpolation value '" + str + "'");
+      }
+    }
+
+    if (json.has("bounds")) {
+      JsonArray bounds = json.getAsJsonArray("bounds");
+      return new CalibrationTable(x, y, interpolation, bounds.get(0).getAsDouble(), bounds.get(1).getAsDouble());
+    }
+
+    return new CalibrationTable(x, y, interpolation);
+  }
+
+  // **************************************************************************
+  // *
+  // * Load a table from a calibration file
+  // *
+  // **************************************************************************
+  public static CalibrationTable load(String path) throws IOException {
+    JsonElement top;
+    try (Reader reader = Files.newBufferedReader(Paths.get(path))) {
+      top = new JsonParser().parse(reader);
+    }
+    if (!top.isJsonObject()) {
+      throw new IllegalArgumentException("calibration file '" + path + "' must be a JSON object");
+    }
+    return fromJson(top.getAsJsonObject());
+  }
+
+  public double minX() {
+    return minX;
+  }
+
+  public double maxX() {
+    return maxX;
+  }
+
+  public boolean contains(double x) {
+    return (x >= minX) && (x <= maxX);
+  }
+
+  // **************************************************************************
+  // *
+  // * The curve's value at x, or NaN if x is outside the bounds
+  // *
+  // **************************************************************************
+  public double lookup(double x) {
+    if (!contains(x)) {
+      return Double.NaN;
+    }
+
+    int last = xs.length - 1;
+
+    if (x <= xs[0]) {
+      return ys[0] + slopes[0] * (x - xs[0]);
+    }
+    if (x >= xs[last]) {
+      return ys[last] + slopes[last] * (x - xs[last]);
+    }
+
+    // Either the sample itself, or the one before the insertion point
+    int i = Arrays.binarySearch(xs, x);
+    if (i >= 0) {
+      return ys[i];
+    }
+    i = -i - 2;
+
+    double h = xs[i + 1] - xs[i];
+    double t = (x - xs[i]) / h;
+
+    if (interpolation == LINEAR) {
+      return ys[i] + t * (ys[i + 1] - ys[i]);
+    }
+
+    // Cubic Hermite between the two samples
+    double t2 = t * t;
+    double t3 = t2 * t;
+    return (2 * t3 - 3 * t2 + 1) * ys[i] + (t3 - 2 * t2 + t) * h * slopes[i] + (-2 * t3 + 3 * t2) * ys[i + 1]
+        + (t3 - t2) * h * slopes[i + 1];
+  }
+
+  private double secant(int i) {
+    return (ys[i + 1] - ys[i]) / (xs[i + 1] - xs[i]);
+  }
+
+  // Fritsch-Carlson tangents: start from the average of the neighbouring
+  // secants, zero them at local extrema and scale them down where they would
+  // make the curve overshoot
+  private void computeMonotoneSlopes() {
+    int count = xs.length;
+
+    slopes[0] = secant(0);
+    slopes[count - 1] = secant(count - 2);
+    for (int i = 1; i < count - 1; i++) {
+      double before = secant(i - 1);
+      double after = secant(i);
+      slopes[i] = ((before * after) <= 0.0) ? 0.0 : (before + after) / 2.0;
+    }
+
+    for (int i = 0; i < count - 1; i++) {
+      double delta = secant(i);
+
+      if (delta == 0.0) {
+        slopes[i] = 0.0;
+        slopes[i + 1] = 0.0;
+        continue;
+      }
+
+      double alpha = slopes[i] / delta;
+      double beta = slopes[i + 1] / delta;
+      double length = alpha * alpha + beta * beta;
+
+      if (length > 9.0) {
+        double tau = 3.0 / Math.sqrt(length);
+        slopes[i] = tau * alpha * delta;
+        slopes[i + 1] = tau * beta * delta;
+      }
+    }
+  }
+
+  private static double min(double[] values) {
+    double min = Double.POSITIVE_INFINITY;
+    for (double value : values) {
+      min = Math.min(min, value);
+    }
+    return min;
+  }
+
+  private static double max(double[] values) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (double value : values) {
+      max = Math.max(max, value);
+    }
+    return max;
+  }
+}
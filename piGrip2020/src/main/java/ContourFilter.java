@@ -0,0 +1,179 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+// **************************************************************************
+// *
+// * ContourFilter Class
+// *
+// * The filter contours parameters (see VisionParameters) compiled into a plan. Criteria that
+// * can't reject anything for the given image size (e.g., a minimum area of
+// * zero) are dropped when the plan is built, and the rest are checked
+// * cheapest first so that most contours are rejected before we ever compute
+// * a convex hull:
+// *
+// *   1. bounding box width, height and ratio
+// *   2. vertex count
+// *   3. area
+// *   4. perimeter
+// *   5. solidity (needs the convex hull)
+// *   6. target shape (needs the rotated rectangle, optional)
+// *
+// **************************************************************************
+public final class ContourFilter {
+
+  private static final int CRITERION_BOUNDING_BOX = 0;
+  private static final int CRITERION_VERTEX_COUNT = 1;
+  private static final int CRITERION_AREA = 2;
+  private static final int CRITERION_PERIMETER = 3;
+  private static final int CRITERION_SOLIDITY = 4;
+  private static final int CRITERION_TARGET_SHAPE = 5;
+
+  private static final String[] CRITERION_NAMES = { "boundingBox", "vertexCount", "area", "perimeter", "solidity",
+      "targetShape" };
+
+  private final double minArea;
+  private final double minPerimeter;
+  private final double minWidth;
+  private final double maxWidth;
+  private final double minHeight;
+  private final double maxHeight;
+  private final double minSolidity;
+  private final double maxSolidity;
+  private final double minVertexCount;
+  private final double maxVertexCount;
+  private final double minRatio;
+  private final double maxRatio;
+  private final VisionParameters parameters;
+
+  // The criteria that survived compilation, in the order they're checked
+  private final int[] plan;
+
+  // **************************************************************************
+  // *
+  // * Compile the filter. The image size is used to scale the pixel limits
+  // * (which are for a reference size image, see VisionParameters) and to
+  // * work out which limits can never be reached (e.g., a maximum width wider
+  // * than the image).
+  // *
+  // **************************************************************************
+  public ContourFilter(VisionParameters parameters, int imageWidth, int imageHeight, boolean includeTargetShape) {
+
+    double scale = imageWidth / VisionParameters.REFERENCE_IMAGE_WIDTH;
+
+    this.minArea = parameters.get(VisionParameters.MIN_AREA) * scale * scale;
+    this.minPerimeter = parameters.get(VisionParameters.MIN_PERIMETER) * scale;
+    this.minWidth = parameters.get(VisionParameters.MIN_WIDTH) * scale;
+    this.maxWidth = parameters.get(VisionParameters.MAX_WIDTH) * scale;
+    this.minHeight = parameters.get(VisionParameters.MIN_HEIGHT) * scale;
+    this.maxHeight = parameters.get(VisionParameters.MAX_HEIGHT) * scale;
+    this.minSolidity = parameters.get(VisionParameters.MIN_SOLIDITY);
+    this.maxSolidity = parameters.get(VisionParameters.MAX_SOLIDITY);
+    this.minVertexCount = parameters.get(VisionParameters.MIN_VERTICES);
+    this.maxVertexCount = parameters.get(VisionParameters.MAX_VERTICES);
+    this.minRatio = parameters.get(VisionParameters.MIN_RATIO);
+    this.maxRatio = parameters.get(VisionParameters.MAX_RATIO);
+    this.parameters = parameters;
+
+    int[] criteria = new int[CRITERION_NAMES.length];
+    int count = 0;
+
+    // A contour's bounding box is at least one pixel and at most the image in
+    // each direction, so its ratio is between 1 / imageHeight and imageWidth.
+    boolean widthNoOp = (minWidth <= 1) && (maxWidth >= imageWidth);
+    boolean heightNoOp = (minHeight <= 1) && (maxHeight >= imageHeight);
+    boolean ratioNoOp = (minRatio <= 1.0 / imageHeight) && (maxRatio >= imageWidth);
+
+    if (!(widthNoOp && heightNoOp && ratioNoOp)) {
+      criteria[count++] = CRITERION_BOUNDING_BOX;
+    }
+
+    // A contour can't visit a pixel more than twice, so it can't have more
+    // than two vertices per pixel in the image.
+    if ((minVertexCount > 0) || (maxVertexCount < 2.0 * imageWidth * imageHeight)) {
+      criteria[count++] = CRITERION_VERTEX_COUNT;
+    }
+
+    if (minArea > 0) {
+      criteria[count++] = CRITERION_AREA;
+    }
+
+    if (minPerimeter > 0) {
+      criteria[count++] = CRITERION_PERIMETER;
+    }
+
+    // Solidity is a percentage, the contour can't be bigger than its hull
+    if ((minSolidity > 0) || (maxSolidity < 100)) {
+      criteria[count++] = CRITERION_SOLIDITY;
+    }
+
+    if (includeTargetShape) {
+      criteria[count++] = CRITERION_TARGET_SHAPE;
+    }
+
+    plan = new int[count];
+    System.arraycopy(criteria, 0, plan, 0, count);
+  }
+
+  // **************************************************************************
+  // *
+  // * Run the plan against a contour, stopping at the first failed criterion
+  // *
+  // **************************************************************************
+  public boolean accept(ContourGeometry geometry) {
+    for (int i = 0; i < plan.length; i++) {
+      switch (plan[i]) {
+      case CRITERION_BOUNDING_BOX: {
+        int width = geometry.width();
+        int height = geometry.height();
+        if (width < minWidth || width > maxWidth) return false;
+        if (height < minHeight || height > maxHeight) return false;
+        double ratio = width / (double) height;
+        if (ratio < minRatio || ratio > maxRatio) return false;
+        break;
+      }
+      case CRITERION_VERTEX_COUNT:
+        if (geometry.vertexCount() < minVertexCount || geometry.vertexCount() > maxVertexCount) return false;
+        break;
+      case CRITERION_AREA:
+        if (geometry.area() < minArea) return false;
+        break;
+      case CRITERION_PERIMETER:
+        if (geometry.perimeter() < minPerimeter) return false;
+        break;
+      case CRITERION_SOLIDITY: {
+        double solid = geometry.solidity();
+        if (solid < minSolidity || solid > maxSolidity) return false;
+        break;
+      }
+      case CRITERION_TARGET_SHAPE:
+        if (!parameters.isTargetShape(geometry.rectAngle(), geometry.rectHeight() / geometry.rectWidth())) return false;
+        break;
+      default:
+        break;
+      }
+    }
+    return true;
+  }
+
+  // **************************************************************************
+  // *
+  // * Describe the compiled plan, e.g. "[boundingBox, targetShape]"
+  // *
+  // **************************************************************************
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < plan.length; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(CRITERION_NAMES[plan[i]]);
+    }
+    return sb.append(']').toString();
+  }
+}
@@ -0,0 +1,507 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+
+// **************************************************************************
+// *
+// * ContourGeometry Class
+// *
+// * Measures a single contour in pure Java. The contour's points are copied
+// * out of the native Mat once with a bulk get() and every measurement
+// * (bounding box, area, perimeter, convex hull, solidity, vertex count and
+// * minimum area rotated rectangle) is computed from that int[] copy. Each
+// * measurement is computed at most once per contour and cached, so callers
+// * only pay for what they ask for.
+// *
+// * A blob from the BlobExtractor can be measured too. Its points are the
+// * ends of its pixel runs, which have the same bounding box and convex hull
+// * (and so the same rotated rectangle) as its outer contour. Its area is its
+// * pixel count and its perimeter is the hull's.
+// *
+// * Instances are meant to be reused from frame to frame. The buffers grow to
+// * fit the largest contour seen and are never shrunk.
+// *
+// **************************************************************************
+public final class ContourGeometry {
+
+  // Contour points stored as x0, y0, x1, y1, ...
+  private int[] points = new int[256];
+  private int vertexCount;
+  private boolean blob;
+
+  private int minX;
+  private int minY;
+  private int maxX;
+  private int maxY;
+
+  // Convex hull scratch space. The hull is stored in the same x, y layout as
+  // the points.
+  private long[] sortKeys = new long[128];
+  private int[] hull = new int[512];
+  private int hullCount;
+
+  private boolean areaValid;
+  private boolean perimeterValid;
+  private boolean hullValid;
+  private boolean rectValid;
+
+  private double area;
+  private double perimeter;
+  private double hullArea;
+
+  private double rectCenterX;
+  private double rectCenterY;
+  private double rectWidth;
+  private double rectHeight;
+  private double rectAngle;
+
+  // **************************************************************************
+  // *
+  // * Copy a contour's points and compute its bounding box
+  // *
+  // **************************************************************************
+  public void load(MatOfPoint contour) {
+    int count = contour.rows();
+
+    if (points.length < 2 * count) {
+      points = new int[4 * count];
+    }
+
+    // One JNI crossing for the whole contour
+    contour.get(0, 0, points);
+    load(points, count);
+  }
+
+  // **************************************************************************
+  // *
+  // * Measure a blob from its run end points, starting at point "from" in xy
+  // *
+  // **************************************************************************
+  public void loadBlob(int[] xy, int from, int count, double pixelArea) {
+    if (points.length < 2 * count) {
+      points = new int[4 * count];
+    }
+    System.arraycopy(xy, 2 * from, points, 0, 2 * count);
+    load(points, count);
+
+    blob = true;
+    area = pixelArea;
+    areaValid = true;
+  }
+
+  // **************************************************************************
+  // *
+  // * Measure points that are already in a Java array (x0, y0, x1, y1, ...)
+  // *
+  // **************************************************************************
+  public void load(int[] xy, int count) {
+    blob = false;
+
+    if (xy != points) {
+      if (points.length < 2 * count) {
+        points = new int[4 * count];
+      }
+      System.arraycopy(xy, 0, points, 0, 2 * count);
+    }
+
+    vertexCount = count;
+    areaValid = false;
+    perimeterValid = false;
+    hullValid = false;
+    rectValid = false;
+
+    if (count == 0) {
+      minX = minY = maxX = maxY = 0;
+      return;
+    }
+
+    minX = maxX = points[0];
+    minY = maxY = points[1];
+
+    for (int i = 1; i < count; i++) {
+      int x = points[2 * i];
+      int y = points[2 * i + 1];
+
+      if (x < minX) {
+        minX = x;
+      } else if (x > maxX) {
+        maxX = x;
+      }
+
+      if (y < minY) {
+        minY = y;
+      } else if (y > maxY) {
+        maxY = y;
+      }
+    }
+  }
+
+  public int vertexCount() {
+    return vertexCount;
+  }
+
+  // Bounding box using the same convention as Imgproc.boundingRect(), i.e.,
+  // the width and height include both end pixels.
+  public int x() {
+    return minX;
+  }
+
+  public int y() {
+    return minY;
+  }
+
+  public int width() {
+    return (vertexCount == 0) ? 0 : maxX - minX + 1;
+  }
+
+  public int height() {
+    return (vertexCount == 0) ? 0 : maxY - minY + 1;
+  }
+
+  // **************************************************************************
+  // *
+  // * Contour area (same as Imgproc.contourArea())
+  // *
+  // **************************************************************************
+  public double area() {
+    if (!areaValid) {
+      area = polygonArea(points, vertexCount);
+      areaValid = true;
+    }
+    return area;
+  }
+
+  // **************************************************************************
+  // *
+  // * Closed contour perimeter (same as Imgproc.arcLength(contour, true))
+  // *
+  // **************************************************************************
+  public double perimeter() {
+    if (!perimeterValid) {
+      if (blob) {
+        computeHull();
+        perimeter = closedLength(hull, hullCount);
+      } else {
+        perimeter = closedLength(points, vertexCount);
+      }
+      perimeterValid = true;
+    }
+    return perimeter;
+  }
+
+  private static double closedLength(int[] xy, int count) {
+    double sum = 0.0;
+
+    if (count > 1) {
+      int prevX = xy[2 * (count - 1)];
+      int prevY = xy[2 * (count - 1) + 1];
+
+      for (int i = 0; i < count; i++) {
+        int x = xy[2 * i];
+        int y = xy[2 * i + 1];
+        double dx = x - prevX;
+        double dy = y - prevY;
+        sum += Math.sqrt(dx * dx + dy * dy);
+        prevX = x;
+        prevY = y;
+      }
+    }
+
+    return sum;
+  }
+
+  // **************************************************************************
+  // *
+  // * Area of the convex hull
+  // *
+  // **************************************************************************
+  public double hullArea() {
+    computeHull();
+    return hullArea;
+  }
+
+  public int hullVertexCount() {
+    computeHull();
+    return hullCount;
+  }
+
+  // **************************************************************************
+  // *
+  // * Solidity as a percentage (100 * area / hull area), the same units that
+  // * GRIP's filter contours step uses.
+  // *
+  // * A blob's area is a pixel count, so it's compared with the number of
+  // * pixels the hull covers rather than the area inside the pixel centres
+  // * (by Pick's theorem, about the area plus half the perimeter plus one).
+  // *
+  // **************************************************************************
+  public double solidity() {
+    if (blob) {
+      return 100 * area() / (hullArea() + (perimeter() / 2.0) + 1.0);
+    }
+    return 100 * area() / hullArea();
+  }
+
+  // **************************************************************************
+  // *
+  // * Minimum area rotated rectangle. The angle follows the OpenCV 3.x
+  // * Imgproc.minAreaRect() convention of [-90, 0) degrees, with the width
+  // * measured along the direction of the angle.
+  // *
+  // **************************************************************************
+  public double rectCenterX() {
+    computeMinAreaRect();
+    return rectCenterX;
+  }
+
+  public double rectCenterY() {
+    computeMinAreaRect();
+    return rectCenterY;
+  }
+
+  public double rectWidth() {
+    computeMinAreaRect();
+    return rectWidth;
+  }
+
+  public double rectHeight() {
+    computeMinAreaRect();
+    return rectHeight;
+  }
+
+  public double rectAngle() {
+    computeMinAreaRect();
+    return rectAngle;
+  }
+
+  public Rect boundingRect() {
+    return new Rect(x(), y(), width(), height());
+  }
+
+  public RotatedRect minAreaRect() {
+    computeMinAreaRect();
+    return new RotatedRect(new Point(rectCenterX, rectCenterY), new Size(rectWidth, rectHeight), rectAngle);
+  }
+
+  // **************************************************************************
+  // *
+  // * Andrew's monotone chain convex hull. The points are packed into longs
+  // * (x in the high word, y in the low word) so they can be sorted with the
+  // * primitive Arrays.sort() without boxing.
+  // *
+  // **************************************************************************
+  private void computeHull() {
+    if (hullValid) {
+      return;
+    }
+    hullValid = true;
+
+    int count = vertexCount;
+
+    if (sortKeys.length < count) {
+      sortKeys = new long[2 * count];
+    }
+    if (hull.length < 4 * count + 4) {
+      hull = new int[8 * count + 8];
+    }
+
+    for (int i = 0; i < count; i++) {
+      sortKeys[i] = ((long) points[2 * i] << 32) | (points[2 * i + 1] & 0xFFFFFFFFL);
+    }
+    Arrays.sort(sortKeys, 0, count);
+
+    if (count < 3) {
+      hullCount = 0;
+      for (int i = 0; i < count; i++) {
+        if ((i == 0) || (sortKeys[i] != sortKeys[i - 1])) {
+          hull[2 * hullCount] = (int) (sortKeys[i] >> 32);
+          hull[2 * hullCount + 1] = (int) sortKeys[i];
+          hullCount++;
+        }
+      }
+      hullArea = 0.0;
+      return;
+    }
+
+    int k = 0;
+
+    // Lower hull
+    for (int i = 0; i < count; i++) {
+      int x = (int) (sortKeys[i] >> 32);
+      int y = (int) sortKeys[i];
+      while ((k >= 2) && (cross(k - 2, k - 1, x, y) <= 0)) {
+        k--;
+      }
+      hull[2 * k] = x;
+      hull[2 * k + 1] = y;
+      k++;
+    }
+
+    // Upper hull
+    int lowerCount = k + 1;
+    for (int i = count - 2; i >= 0; i--) {
+      int x = (int) (sortKeys[i] >> 32);
+      int y = (int) sortKeys[i];
+      while ((k >= lowerCount) && (cross(k - 2, k - 1, x, y) <= 0)) {
+        k--;
+      }
+      hull[2 * k] = x;
+      hull[2 * k + 1] = y;
+      k++;
+    }
+
+    // The last point is the same as the first one
+    hullCount = Math.max(k - 1, 1);
+    hullArea = polygonArea(hull, hullCount);
+  }
+
+  private long cross(int o, int a, int bx, int by) {
+    long ox = hull[2 * o];
+    long oy = hull[2 * o + 1];
+    return (hull[2 * a] - ox) * (by - oy) - (hull[2 * a + 1] - oy) * (bx - ox);
+  }
+
+  // **************************************************************************
+  // *
+  // * Minimum area rectangle. The minimum area enclosing rectangle always has
+  // * one side collinear with an edge of the convex hull, so we try each hull
+  // * edge in turn and project the hull onto it. Hulls of the blobs we're
+  // * interested in only have a handful of vertices.
+  // *
+  // **************************************************************************
+  private void computeMinAreaRect() {
+    if (rectValid) {
+      return;
+    }
+    rectValid = true;
+
+    computeHull();
+
+    if (hullCount == 0) {
+      rectCenterX = rectCenterY = rectWidth = rectHeight = rectAngle = 0.0;
+      return;
+    }
+
+    if (hullCount == 1) {
+      rectCenterX = hull[0];
+      rectCenterY = hull[1];
+      rectWidth = rectHeight = rectAngle = 0.0;
+      return;
+    }
+
+    if (hullCount == 2) {
+      double dx = hull[2] - hull[0];
+      double dy = hull[3] - hull[1];
+      rectCenterX = (hull[0] + hull[2]) / 2.0;
+      rectCenterY = (hull[1] + hull[3]) / 2.0;
+      rectWidth = Math.sqrt(dx * dx + dy * dy);
+      rectHeight = 0.0;
+      rectAngle = Math.toDegrees(Math.atan2(dy, dx));
+      return;
+    }
+
+    double bestArea = Double.MAX_VALUE;
+
+    for (int i = 0; i < hullCount; i++) {
+      int next = (i + 1 == hullCount) ? 0 : i + 1;
+      double edgeX = hull[2 * next] - hull[2 * i];
+      double edgeY = hull[2 * next + 1] - hull[2 * i + 1];
+      double length = Math.sqrt(edgeX * edgeX + edgeY * edgeY);
+
+      if (length == 0.0) {
+        continue;
+      }
+
+      // Unit vectors along (u) and perpendicular to (v) the edge
+      double ux = edgeX / length;
+      double uy = edgeY / length;
+      double vx = -uy;
+      double vy = ux;
+
+      double minU = Double.MAX_VALUE;
+      double maxU = -Double.MAX_VALUE;
+      double minV = Double.MAX_VALUE;
+      double maxV = -Double.MAX_VALUE;
+
+      for (int j = 0; j < hullCount; j++) {
+        double px = hull[2 * j];
+        double py = hull[2 * j + 1];
+        double u = px * ux + py * uy;
+        double v = px * vx + py * vy;
+        minU = Math.min(minU, u);
+        maxU = Math.max(maxU, u);
+        minV = Math.min(minV, v);
+        maxV = Math.max(maxV, v);
+      }
+
+      double width = maxU - minU;
+      double height = maxV - minV;
+      double area = width * height;
+
+      if (area < bestArea) {
+        bestArea = area;
+        double midU = (minU + maxU) / 2.0;
+        double midV = (minV + maxV) / 2.0;
+        rectCenterX = midU * ux + midV * vx;
+        rectCenterY = midU * uy + midV * vy;
+        rectWidth = width;
+        rectHeight = height;
+        rectAngle = Math.toDegrees(Math.atan2(uy, ux));
+      }
+    }
+
+    // Rotate the angle into [-90, 0). Every quarter turn swaps which side
+    // lies along the angle's direction, so swap width and height with it.
+    while (rectAngle >= 0.0) {
+      rectAngle -= 90.0;
+      swapRectSides();
+    }
+    while (rectAngle < -90.0) {
+      rectAngle += 90.0;
+      swapRectSides();
+    }
+  }
+
+  private void swapRectSides() {
+    double temp = rectWidth;
+    rectWidth = rectHeight;
+    rectHeight = temp;
+  }
+
+  // **************************************************************************
+  // *
+  // * Shoelace formula over an x, y array
+  // *
+  // **************************************************************************
+  private static double polygonArea(int[] xy, int count) {
+    if (count < 3) {
+      return 0.0;
+    }
+
+    long twiceArea = 0;
+    int prevX = xy[2 * (count - 1)];
+    int prevY = xy[2 * (count - 1) + 1];
+
+    for (int i = 0; i < count; i++) {
+      int x = xy[2 * i];
+      int y = xy[2 * i + 1];
+      twiceArea += (long) prevX * y - (long) x * prevY;
+      prevX = x;
+      prevY = y;
+    }
+
+    return Math.abs(twiceArea) / 2.0;
+  }
+}
@@ -0,0 +1,63 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// **************************************************************************
+// *
+// * CpuAffinity Class
+// *
+// * Java has no API for thread affinity, so we look up the calling thread's
+// * Linux thread id through /proc/thread-self and pin it with taskset. This
+// * is best effort: if it fails (e.g., not running on Linux) the thread just
+// * runs wherever the scheduler puts it.
+// *
+// **************************************************************************
+public final class CpuAffinity {
+
+  private CpuAffinity() {
+  }
+
+  // **************************************************************************
+  // *
+  // * Pin the calling thread to a CPU core. Returns true if it worked.
+  // *
+  // **************************************************************************
+  public static boolean pinCurrentThread(int core) {
+    try {
+      // /proc/thread-self is a link to <pid>/task/<tid> for the calling thread
+      Path threadSelf = Files.readSymbolicLink(Paths.get("/proc/thread-self"));
+      String tid = threadSelf.getFileName().toString();
+
+      Process taskset = new ProcessBuilder("taskset", "-p", "-c", Integer.toString(core), tid)
+          .redirectErrorStream(true).start();
+
+      // Drain the output so taskset can't block on a full pipe
+      try (InputStream output = taskset.getInputStream()) {
+        while (output.read() != -1) {
+        }
+      }
+
+      if (taskset.waitFor() != 0) {
+        System.err.println("could not pin thread " + tid + " to core " + core);
+        return false;
+      }
+      return true;
+    } catch (IOException | UnsupportedOperationException ex) {
+      System.err.println("could not pin thread to core " + core + ": " + ex);
+      return false;
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
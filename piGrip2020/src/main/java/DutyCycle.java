@@ -0,0 +1,99 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+// **************************************************************************
+// *
+// * DutyCycle Class
+// *
+// * Lets the robot turn a vision worker's processing down when it isn't
+// * aiming, to save CPU and keep the Pi from heating up and throttling late
+// * in a match. The robot sets the worker's "mode" entry to one of:
+// *
+// *   0 - off:      no frames are grabbed or processed
+// *   1 - idle:     frames are processed at a low rate (IDLE_FRAME_RATE)
+// *   2 - tracking: every frame is processed (the default)
+// *
+// * The camera's own stream keeps running in every mode, only our
+// * processing is throttled. A mode change wakes the capture loop right
+// * away, so tracking resumes with the next frame from the camera.
+// *
+// **************************************************************************
+public final class DutyCycle {
+
+  public static final int MODE_OFF = 0;
+  public static final int MODE_IDLE = 1;
+  public static final int MODE_TRACKING = 2;
+
+  public static final double IDLE_FRAME_RATE = 5.0;
+
+  private static final long IDLE_PERIOD_NANOS = (long) (1.0e9 / IDLE_FRAME_RATE);
+
+  private final String name;
+  private int mode = MODE_TRACKING;
+  private long lastFrameNanos = 0;
+
+  public DutyCycle(String name, NetworkTableEntry modeEntry) {
+    this.name = name;
+
+    modeEntry.setDefaultDouble(MODE_TRACKING);
+    modeEntry.addListener(notification -> {
+      if (notification.value.isDouble()) {
+        setMode((int) notification.value.getDouble());
+      }
+    }, EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate
+        | EntryListenerFlags.kLocal);
+  }
+
+  public synchronized int mode() {
+    return mode;
+  }
+
+  public synchronized void setMode(int newMode) {
+    if ((newMode < MODE_OFF) || (newMode > MODE_TRACKING)) {
+      System.err.println(name + ": ignoring unknown vision mode " + newMode);
+      return;
+    }
+
+    if (newMode != mode) {
+      System.out.println(name + ": vision mode " + mode + " -> " + newMode);
+      mode = newMode;
+      notifyAll();
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Called by the capture loop before grabbing each frame. Returns straight
+  // * away when tracking, otherwise blocks until the next idle frame is due
+  // * or the mode changes.
+  // *
+  // **************************************************************************
+  public synchronized void awaitNextFrame() throws InterruptedException {
+    for (;;) {
+      if (mode == MODE_TRACKING) {
+        break;
+      }
+
+      if (mode == MODE_OFF) {
+        wait();
+        continue;
+      }
+
+      long waitNanos = lastFrameNanos + IDLE_PERIOD_NANOS - System.nanoTime();
+      if (waitNanos <= 0) {
+        break;
+      }
+      wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+    }
+
+    lastFrameNanos = System.nanoTime();
+  }
+}
@@ -0,0 +1,80 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+// **************************************************************************
+// *
+// * FrameQueue Class
+// *
+// * A fixed-size ring of frame slots between two stages. Putting a slot
+// * never blocks: if the ring is full the oldest slot is pushed out and
+// * handed back to the caller to recycle. A slow consumer therefore always
+// * gets the newest frames instead of working through a backlog.
+// *
+// **************************************************************************
+public final class FrameQueue {
+
+  private final FrameSlot[] ring;
+  private int head = 0;
+  private int count = 0;
+  private long dropped = 0;
+
+  public FrameQueue(int capacity) {
+    ring = new FrameSlot[capacity];
+  }
+
+  // **************************************************************************
+  // *
+  // * Add a slot. Returns the slot that was dropped to make room, or null.
+  // *
+  // **************************************************************************
+  public synchronized FrameSlot put(FrameSlot slot) {
+    FrameSlot droppedSlot = null;
+
+    if (count == ring.length) {
+      droppedSlot = ring[head];
+      ring[head] = null;
+      head = (head + 1) % ring.length;
+      count--;
+      dropped++;
+    }
+
+    ring[(head + count) % ring.length] = slot;
+    count++;
+    notifyAll();
+
+    return droppedSlot;
+  }
+
+  // **************************************************************************
+  // *
+  // * Remove the oldest slot, waiting for one if the ring is empty
+  // *
+  // **************************************************************************
+  public synchronized FrameSlot take() throws InterruptedException {
+    while (count == 0) {
+      wait();
+    }
+
+    FrameSlot slot = ring[head];
+    ring[head] = null;
+    head = (head + 1) % ring.length;
+    count--;
+
+    return slot;
+  }
+
+  // Number of slots waiting in the ring
+  public synchronized int depth() {
+    return count;
+  }
+
+  // Number of slots pushed out because the ring was full
+  public synchronized long dropped() {
+    return dropped;
+  }
+}
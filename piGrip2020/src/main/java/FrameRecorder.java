@@ -0,0 +1,477 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+
+// **************************************************************************
+// *
+// * FrameRecorder Class
+// *
+// * A black box for the vision worker. Every Nth raw frame, the threshold
+// * mask it was processed with and its result are kept in a fixed size ring
+// * file, memory mapped so the kernel writes it out to the SD card in the
+// * background.
+// *
+// * The vision thread only copies the frame and mask out of native memory
+// * into a free staging buffer and queues it, which is well under a
+// * millisecond. If the writer has fallen behind and there isn't a free
+// * buffer, the frame just isn't recorded. The writer thread copies each
+// * staged frame into the next slot of the ring.
+// *
+// * The last few seconds of the ring are dumped to ordinary files when
+// * "<table>/record/dump" is set to true, or at the end of a match (when the
+// * robot is disabled with the FMS attached):
+// *
+// *   <directory>/<camera>-<date>-<time>/frames/<frame id>.png
+// *   <directory>/<camera>-<date>-<time>/masks/<frame id>.png
+// *   <directory>/<camera>-<date>-<time>/results.csv
+// *
+// * A second dump within the same second gets a "-2" (and so on) suffix.
+// * The frames directory can be fed straight to Replay.
+// *
+// * The slots are sized from the first frame recorded (the mask is never
+// * bigger than the frame). Frames bigger than that, or of another type,
+// * aren't recorded. When the pipeline only searched a region of interest,
+// * the mask is a crop of the full mask. Its offset and the full size are
+// * kept with it, and the dumped mask is the full size with the crop in
+// * place.
+// *
+// **************************************************************************
+public final class FrameRecorder {
+
+  private static final int SLOT_MAGIC = 0x56495352;
+  private static final int HEADER_BYTES = 128;
+  private static final int STAGING_BUFFERS = 3;
+
+  // Header layout
+  private static final int MAGIC = 0;
+  private static final int FRAME_WIDTH = 4;
+  private static final int FRAME_HEIGHT = 8;
+  private static final int FRAME_TYPE = 12;
+  private static final int MASK_WIDTH = 16;
+  private static final int MASK_HEIGHT = 20;
+  private static final int FRAME_ID = 24;
+  private static final int FRAME_TIME = 32;
+  private static final int TARGETING_STATE = 40;
+  private static final int PAIR_FOUND = 44;
+  private static final int OFFSET_PIXELS = 48;
+  private static final int DISTANCE_INCHES = 56;
+  private static final int OFFSET_INCHES = 64;
+  private static final int LEFT_TARGET = 72;
+  private static final int RIGHT_TARGET = 88;
+  private static final int MASK_X = 104;
+  private static final int MASK_Y = 108;
+  private static final int MASK_FULL_WIDTH = 112;
+  private static final int MASK_FULL_HEIGHT = 116;
+
+  // FMSControlData bits (see the driver station's control word)
+  private static final int CONTROL_ENABLED = 0x01;
+  private static final int CONTROL_AUTONOMOUS = 0x02;
+  private static final int CONTROL_TEST = 0x04;
+  private static final int CONTROL_FMS_ATTACHED = 0x10;
+
+  private static final String CSV_HEADER = "frameId,frameTime,targetingState,pairFound,horizontalOffsetPixels,"
+      + "distanceInches,horizontalOffsetInches,leftX,leftY,leftWidth,leftHeight,rightX,rightY,rightWidth,"
+      + "rightHeight";
+
+  private final String name;
+  private final File ringFile;
+  private final File dumpDirectory;
+  private final int recordEvery;
+  private final int slotCount;
+  private final long dumpMicros;
+
+  private final ArrayBlockingQueue<Staged> freeBuffers = new ArrayBlockingQueue<>(STAGING_BUFFERS);
+  private final ArrayBlockingQueue<Staged> fullBuffers = new ArrayBlockingQueue<>(STAGING_BUFFERS);
+  private final AtomicBoolean dumpRequested = new AtomicBoolean(false);
+
+  // Only touched by the vision thread
+  private long frameCount = 0;
+  private int frameCapacity = 0;
+  private int frameType = -1;
+  private volatile long droppedFrames = 0;
+  private final Size maskFullSize = new Size();
+  private final Point maskOffset = new Point();
+
+  // Only touched by the writer thread
+  private MappedByteBuffer ring;
+  private int slotBytes;
+  private int nextSlot = 0;
+  private NetworkTableEntry lastDumpEntry;
+
+  // Whether the robot was last seen in teleop in a match, so the disabled
+  // gap between auto and teleop isn't taken for the end of the match
+  private boolean wasInMatchTeleop = false;
+
+  // A frame waiting for the writer
+  private static final class Staged {
+    byte[] frame = new byte[0];
+    byte[] mask = new byte[0];
+    int frameBytes;
+    int frameWidth;
+    int frameHeight;
+    int frameType;
+    int maskWidth;
+    int maskHeight;
+    int maskX;
+    int maskY;
+    int maskFullWidth;
+    int maskFullHeight;
+    final TargetingResult result = new TargetingResult();
+  }
+
+  public FrameRecorder(String name, File ringFile, File dumpDirectory, int recordEvery, int slotCount,
+      double dumpSeconds) {
+    this.name = name;
+    this.ringFile = ringFile;
+    this.dumpDirectory = dumpDirectory;
+    this.recordEvery = recordEvery;
+    this.slotCount = slotCount;
+    this.dumpMicros = (long) (dumpSeconds * 1.0e6);
+
+    for (int i = 0; i < STAGING_BUFFERS; i++) {
+      freeBuffers.add(new Staged());
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Start the writer thread, and listen for dump requests on the table's
+  // * "record" subtable and for the end of the match
+  // *
+  // **************************************************************************
+  public void start(NetworkTable table) {
+    NetworkTable recordTable = table.getSubTable("record");
+    NetworkTableEntry dumpEntry = recordTable.getEntry("dump");
+    dumpEntry.setBoolean(false);
+    lastDumpEntry = recordTable.getEntry("last dump");
+
+    dumpEntry.addListener(notification -> {
+      if (notification.value.isBoolean() && notification.value.getBoolean()) {
+        dumpRequested.set(true);
+        dumpEntry.setBoolean(false);
+      }
+    }, EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
+
+    NetworkTableInstance ntinst = table.getInstance();
+    ntinst.getTable("FMSInfo").getEntry("FMSControlData").addListener(notification -> {
+      if (!notification.value.isDouble()) {
+        return;
+      }
+
+      int controlWord = (int) notification.value.getDouble();
+      boolean enabled = (controlWord & CONTROL_ENABLED) != 0;
+      if (wasInMatchTeleop && !enabled) {
+        System.out.println("Match over, dumping the frame recording for '" + name + "'");
+        dumpRequested.set(true);
+      }
+      wasInMatchTeleop = enabled && ((controlWord & CONTROL_FMS_ATTACHED) != 0)
+          && ((controlWord & (CONTROL_AUTONOMOUS | CONTROL_TEST)) == 0);
+    }, EntryListenerFlags.kImmediate | EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
+
+    Thread writer = new Thread(this::writeLoop, "FrameRecorder " + name);
+    writer.setDaemon(true);
+    writer.setPriority(Thread.MIN_PRIORITY);
+    writer.start();
+  }
+
+  public void requestDump() {
+    dumpRequested.set(true);
+  }
+
+  // Frames that weren't recorded because the writer was behind (or too big)
+  public long droppedFrames() {
+    return droppedFrames;
+  }
+
+  // **************************************************************************
+  // *
+  // * Record the frame if it's one of every N. Called on the vision thread
+  // * after the frame has been analysed (and before the overlay is drawn on
+  // * it). The mask can be null.
+  // *
+  // **************************************************************************
+  public void record(Mat frame, Mat mask, TargetingResult result) {
+    if ((frameCount++ % recordEvery) != 0) {
+      return;
+    }
+
+    int frameBytes = (int) (frame.total() * frame.elemSize());
+    if (frameCapacity == 0) {
+      frameCapacity = frameBytes;
+      frameType = frame.type();
+    }
+
+    Staged staged = freeBuffers.poll();
+    if ((staged == null) || (frameBytes > frameCapacity) || (frame.type() != frameType) || !frame.isContinuous()) {
+      droppedFrames++;
+      if (staged != null) {
+        freeBuffers.add(staged);
+      }
+      return;
+    }
+
+    // Sized once, on the first frame each buffer is used for
+    if (staged.frame.length < frameCapacity) {
+      staged.frame = new byte[frameCapacity];
+      staged.mask = new byte[frameCapacity / Math.max(1, (int) frame.elemSize())];
+    }
+
+    frame.get(0, 0, staged.frame);
+    staged.frameBytes = frameBytes;
+    staged.frameWidth = frame.cols();
+    staged.frameHeight = frame.rows();
+    staged.frameType = frameType;
+
+    // The mask is only kept if it's a plain 8 bit mask that fits. A region of
+    // interest crop is packed row by row, with where it is in the full mask.
+    if ((mask != null) && (mask.elemSize() == 1) && (mask.total() <= staged.mask.length)) {
+      mask.get(0, 0, staged.mask);
+      mask.locateROI(maskFullSize, maskOffset);
+      staged.maskWidth = mask.cols();
+      staged.maskHeight = mask.rows();
+      staged.maskX = (int) maskOffset.x;
+      staged.maskY = (int) maskOffset.y;
+      staged.maskFullWidth = (int) maskFullSize.width;
+      staged.maskFullHeight = (int) maskFullSize.height;
+    } else {
+      staged.maskWidth = 0;
+      staged.maskHeight = 0;
+    }
+
+    staged.result.copyFrom(result);
+    fullBuffers.add(staged);
+  }
+
+  // **************************************************************************
+  // *
+  // * Writer Thread
+  // *
+  // **************************************************************************
+  private void writeLoop() {
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        Staged staged = fullBuffers.poll(100, TimeUnit.MILLISECONDS);
+        if (staged != null) {
+          write(staged);
+          freeBuffers.add(staged);
+        }
+
+        if (dumpRequested.getAndSet(false)) {
+          try {
+            dump();
+          } catch (IOException ex) {
+            System.err.println("Frame recording dump for '" + name + "' failed: " + ex.getMessage());
+          }
+        }
+      } catch (InterruptedException ex) {
+        return;
+      } catch (IOException ex) {
+        System.err.println("Frame recorder for '" + name + "' stopped: " + ex.getMessage());
+        return;
+      }
+    }
+  }
+
+  private void openRing(int frameBytes, int maskBytes) throws IOException {
+    slotBytes = HEADER_BYTES + frameBytes + maskBytes;
+    long ringBytes = (long) slotBytes * slotCount;
+
+    File parent = ringFile.getAbsoluteFile().getParentFile();
+    if ((parent != null) && !parent.isDirectory() && !parent.mkdirs()) {
+      throw new IOException("could not create " + parent);
+    }
+
+    try (RandomAccessFile file = new RandomAccessFile(ringFile, "rw")) {
+      file.setLength(ringBytes);
+      ring = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, ringBytes);
+    }
+
+    // Forget whatever the last run left in the file
+    for (int slot = 0; slot < slotCount; slot++) {
+      ring.putInt(slot * slotBytes + MAGIC, 0);
+    }
+
+    System.out.println("Recording every " + recordEvery + " frames of '" + name + "' to " + ringFile + " ("
+        + (ringBytes >> 20) + " MB)");
+  }
+
+  private void write(Staged staged) throws IOException {
+    if (ring == null) {
+      openRing(staged.frame.length, staged.mask.length);
+    }
+
+    int base = nextSlot * slotBytes;
+    nextSlot = (nextSlot + 1) % slotCount;
+
+    // The slot isn't valid while it's being overwritten
+    ring.putInt(base + MAGIC, 0);
+
+    TargetingResult result = staged.result;
+    ring.putInt(base + FRAME_WIDTH, staged.frameWidth);
+    ring.putInt(base + FRAME_HEIGHT, staged.frameHeight);
+    ring.putInt(base + FRAME_TYPE, staged.frameType);
+    ring.putInt(base + MASK_WIDTH, staged.maskWidth);
+    ring.putInt(base + MASK_HEIGHT, staged.maskHeight);
+    ring.putInt(base + MASK_X, staged.maskX);
+    ring.putInt(base + MASK_Y, staged.maskY);
+    ring.putInt(base + MASK_FULL_WIDTH, staged.maskFullWidth);
+    ring.putInt(base + MASK_FULL_HEIGHT, staged.maskFullHeight);
+    ring.putLong(base + FRAME_ID, result.frameId);
+    ring.putLong(base + FRAME_TIME, result.frameTime);
+    ring.putInt(base + TARGETING_STATE, result.targetingState);
+    ring.putInt(base + PAIR_FOUND, result.pairFound ? 1 : 0);
+    ring.putDouble(base + OFFSET_PIXELS, result.horizontalOffsetInPixels);
+    ring.putDouble(base + DISTANCE_INCHES, result.distanceToTargetInInches);
+    ring.putDouble(base + OFFSET_INCHES, result.horizontalOffsetInInches);
+    putRect(base + LEFT_TARGET, result.leftTarget);
+    putRect(base + RIGHT_TARGET, result.rightTarget);
+
+    ByteBuffer data = ring.duplicate();
+    data.position(base + HEADER_BYTES);
+    data.put(staged.frame, 0, staged.frameBytes);
+    data.put(staged.mask, 0, staged.maskWidth * staged.maskHeight);
+
+    ring.putInt(base + MAGIC, SLOT_MAGIC);
+  }
+
+  private void putRect(int offset, Rect rect) {
+    ring.putInt(offset, rect.x);
+    ring.putInt(offset + 4, rect.y);
+    ring.putInt(offset + 8, rect.width);
+    ring.putInt(offset + 12, rect.height);
+  }
+
+  // **************************************************************************
+  // *
+  // * Write the last few seconds of the ring out as images and a CSV
+  // *
+  // **************************************************************************
+  private void dump() throws IOException {
+    if (ring == null) {
+      System.out.println("Nothing recorded yet for '" + name + "'");
+      return;
+    }
+
+    // The newest slot sets the window
+    long newestTime = Long.MIN_VALUE;
+    for (int slot = 0; slot < slotCount; slot++) {
+      int base = slot * slotBytes;
+      if (ring.getInt(base + MAGIC) == SLOT_MAGIC) {
+        newestTime = Math.max(newestTime, ring.getLong(base + FRAME_TIME));
+      }
+    }
+
+    // Two dumps in the same second (e.g., a request as the match ends) each
+    // get their own directory
+    String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+    File directory = new File(dumpDirectory, name + "-" + stamp);
+    for (int copy = 2; directory.exists(); copy++) {
+      directory = new File(dumpDirectory, name + "-" + stamp + "-" + copy);
+    }
+    File framesDirectory = new File(directory, "frames");
+    File masksDirectory = new File(directory, "masks");
+    if (!framesDirectory.mkdirs() || !masksDirectory.mkdirs()) {
+      throw new IOException("could not create " + directory);
+    }
+
+    int dumped = 0;
+    try (PrintStream csv = new PrintStream(new File(directory, "results.csv"))) {
+      csv.println(CSV_HEADER);
+
+      // Oldest first, starting from the slot that's written next
+      for (int i = 0; i < slotCount; i++) {
+        int base = ((nextSlot + i) % slotCount) * slotBytes;
+        if ((ring.getInt(base + MAGIC) != SLOT_MAGIC) || (ring.getLong(base + FRAME_TIME) < newestTime - dumpMicros)) {
+          continue;
+        }
+
+        dumpSlot(base, framesDirectory, masksDirectory, csv);
+        dumped++;
+      }
+    } catch (FileNotFoundException ex) {
+      throw new IOException("could not write " + directory + ": " + ex.getMessage());
+    }
+
+    System.out.println("Dumped " + dumped + " recorded frames of '" + name + "' to " + directory);
+    if (lastDumpEntry != null) {
+      lastDumpEntry.setString(directory.getPath());
+    }
+  }
+
+  private void dumpSlot(int base, File framesDirectory, File masksDirectory, PrintStream csv) {
+    int frameWidth = ring.getInt(base + FRAME_WIDTH);
+    int frameHeight = ring.getInt(base + FRAME_HEIGHT);
+    int frameType = ring.getInt(base + FRAME_TYPE);
+    int maskWidth = ring.getInt(base + MASK_WIDTH);
+    int maskHeight = ring.getInt(base + MASK_HEIGHT);
+    long frameId = ring.getLong(base + FRAME_ID);
+    String fileName = String.format(Locale.US, "%08d.png", frameId);
+
+    ByteBuffer data = ring.duplicate();
+    data.position(base + HEADER_BYTES);
+
+    Mat frame = new Mat(frameHeight, frameWidth, frameType);
+    byte[] frameBytes = new byte[(int) (frame.total() * frame.elemSize())];
+    data.get(frameBytes);
+    frame.put(0, 0, frameBytes);
+    Imgcodecs.imwrite(new File(framesDirectory, fileName).getPath(), frame);
+    frame.release();
+
+    if (maskWidth > 0) {
+      int maskX = ring.getInt(base + MASK_X);
+      int maskY = ring.getInt(base + MASK_Y);
+      int maskFullWidth = ring.getInt(base + MASK_FULL_WIDTH);
+      int maskFullHeight = ring.getInt(base + MASK_FULL_HEIGHT);
+
+      // Put the crop back where it was, outside it wasn't searched
+      Mat mask = new Mat(maskFullHeight, maskFullWidth, CvType.CV_8UC1, new Scalar(0));
+      Mat crop = mask.submat(new Rect(maskX, maskY, maskWidth, maskHeight));
+      byte[] maskBytes = new byte[maskWidth * maskHeight];
+      data.get(maskBytes);
+      crop.put(0, 0, maskBytes);
+      Imgcodecs.imwrite(new File(masksDirectory, fileName).getPath(), mask);
+      crop.release();
+      mask.release();
+    }
+
+    csv.printf(Locale.US, "%d,%d,%d,%d,%.2f,%.2f,%.2f,%d,%d,%d,%d,%d,%d,%d,%d%n", frameId,
+        ring.getLong(base + FRAME_TIME), ring.getInt(base + TARGETING_STATE), ring.getInt(base + PAIR_FOUND),
+        ring.getDouble(base + OFFSET_PIXELS), ring.getDouble(base + DISTANCE_INCHES),
+        ring.getDouble(base + OFFSET_INCHES), ring.getInt(base + LEFT_TARGET), ring.getInt(base + LEFT_TARGET + 4),
+        ring.getInt(base + LEFT_TARGET + 8), ring.getInt(base + LEFT_TARGET + 12), ring.getInt(base + RIGHT_TARGET),
+        ring.getInt(base + RIGHT_TARGET + 4), ring.getInt(base + RIGHT_TARGET + 8),
+        ring.getInt(base + RIGHT_TARGET + 12));
+  }
+}
@@ -0,0 +1,30 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.Mat;
+
+// **************************************************************************
+// *
+// * FrameSlot Class
+// *
+// * One preallocated slot in a staged vision worker's frame ring. A slot
+// * carries a camera frame and its targeting result from stage to stage and
+// * is then recycled, so the Mat's pixel buffer is reused for later frames.
+// *
+// **************************************************************************
+public final class FrameSlot {
+
+  public final Mat frame = new Mat();
+  public final TargetingResult result = new TargetingResult();
+
+  // Sequence number assigned by the capture stage
+  public long frameId;
+
+  // Capture time from CvSink.grabFrame(), in microseconds
+  public long frameTime;
+}
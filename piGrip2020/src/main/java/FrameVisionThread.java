@@ -0,0 +1,104 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoSource;
+import edu.wpi.first.vision.VisionPipeline;
+
+import org.opencv.core.Mat;
+
+// **************************************************************************
+// *
+// * FrameVisionThread Class
+// *
+// * A replacement for WPILib's VisionThread that grabs each camera frame
+// * exactly once. The same Mat that was handed to the pipeline is handed
+// * to the listener, so the overlay is drawn on the frame that was actually
+// * analysed and we only pay for one frame decode per cycle.
+// *
+// **************************************************************************
+public class FrameVisionThread<P extends VisionPipeline> extends Thread {
+
+  // Listener that is called after the pipeline has processed a frame. The
+  // frame is only valid until the listener returns.
+  @FunctionalInterface
+  public interface Listener<P extends VisionPipeline> {
+    void copyPipelineOutputs(P pipeline, Mat frame, long frameTime);
+  }
+
+  private final CvSink cvSink;
+  private final P pipeline;
+  private final Listener<? super P> listener;
+  private final Mat frame = new Mat();
+  private int cpuCore = -1;
+  private DutyCycle dutyCycle = null;
+
+  public FrameVisionThread(VideoSource videoSource, P pipeline, Listener<? super P> listener) {
+    super("FrameVisionThread " + videoSource.getName());
+    setDaemon(true);
+
+    this.pipeline = pipeline;
+    this.listener = listener;
+
+    cvSink = new CvSink("FrameVisionThread CvSink " + videoSource.getName());
+    cvSink.setSource(videoSource);
+  }
+
+  // **************************************************************************
+  // *
+  // * Pin the thread to a CPU core when it starts (-1 to let it float)
+  // *
+  // **************************************************************************
+  public void setCpuCore(int cpuCore) {
+    this.cpuCore = cpuCore;
+  }
+
+  // **************************************************************************
+  // *
+  // * Only grab frames as often as the duty cycle allows (null for every frame)
+  // *
+  // **************************************************************************
+  public void setDutyCycle(DutyCycle dutyCycle) {
+    this.dutyCycle = dutyCycle;
+  }
+
+  // **************************************************************************
+  // *
+  // * Grab, process and report one frame at a time until interrupted
+  // *
+  // **************************************************************************
+  @Override
+  public void run() {
+    if (cpuCore >= 0) {
+      CpuAffinity.pinCurrentThread(cpuCore);
+    }
+
+    while (!Thread.interrupted()) {
+
+      if (dutyCycle != null) {
+        try {
+          dutyCycle.awaitNextFrame();
+        } catch (InterruptedException ex) {
+          return;
+        }
+      }
+
+      // A frame time of zero means the grab failed (e.g., the camera was
+      // unplugged). Report it and try again rather than processing a stale Mat.
+      long frameTime = cvSink.grabFrame(frame);
+
+      if (frameTime == 0) {
+        System.err.println("Frame grab failed on " + getName() + ": " + cvSink.getError());
+        continue;
+      }
+
+      pipeline.process(frame);
+      listener.copyPipelineOutputs(pipeline, frame, frameTime);
+    }
+  }
+}
@@ -0,0 +1,140 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// **************************************************************************
+// *
+// * LatencyHistogram Class
+// *
+// * A fixed-size, lock-free histogram of durations. Values are recorded in
+// * microseconds into log-linear buckets: exact below 16 us, then eight
+// * buckets per power of two, which keeps the error under 12.5% from 1 us
+// * up to about 30 minutes in 232 buckets. Recording is a couple of atomic
+// * increments and never allocates, so it's safe to call from the hot path
+// * on any thread.
+// *
+// **************************************************************************
+public final class LatencyHistogram {
+
+  private static final int LINEAR_BUCKETS = 16;
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int MAX_EXPONENT = 30;
+  private static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_EXPONENT - 3) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+  private final AtomicLong maxMicros = new AtomicLong();
+
+  // **************************************************************************
+  // *
+  // * Record one duration in nanoseconds (e.g., the difference between two
+  // * System.nanoTime() calls)
+  // *
+  // **************************************************************************
+  public void recordNanos(long nanos) {
+    long micros = Math.max(0, nanos / 1000);
+
+    counts.incrementAndGet(bucketIndex(micros));
+
+    long max = maxMicros.get();
+    while ((micros > max) && !maxMicros.compareAndSet(max, micros)) {
+      max = maxMicros.get();
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Move everything recorded since the last snapshot into a snapshot and
+  // * start counting again from zero
+  // *
+  // **************************************************************************
+  public void snapshotAndReset(Snapshot snapshot) {
+    long total = 0;
+
+    for (int i = 0; i < BUCKET_COUNT; i++) {
+      long count = counts.getAndSet(i, 0);
+      snapshot.counts[i] = count;
+      total += count;
+    }
+
+    snapshot.count = total;
+    snapshot.maxMicros = maxMicros.getAndSet(0);
+  }
+
+  private static int bucketIndex(long micros) {
+    if (micros < LINEAR_BUCKETS) {
+      return (int) micros;
+    }
+
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+
+    if (exponent > MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+
+    int subBucket = (int) (micros >> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return LINEAR_BUCKETS + (exponent - 4) * SUB_BUCKETS + subBucket;
+  }
+
+  // Largest value (in microseconds) that lands in a bucket
+  private static long bucketUpperBound(int index) {
+    if (index < LINEAR_BUCKETS) {
+      return index;
+    }
+
+    int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 4;
+    int subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return ((SUB_BUCKETS + subBucket) << (exponent - SUB_BUCKET_BITS)) + width - 1;
+  }
+
+  // **************************************************************************
+  // *
+  // * Snapshot Class
+  // *
+  // * A copy of the histogram's counts that percentiles can be read from
+  // * without racing the threads that are still recording. Reuse one per
+  // * histogram to avoid allocating.
+  // *
+  // **************************************************************************
+  public static final class Snapshot {
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long maxMicros;
+
+    public long count() {
+      return count;
+    }
+
+    public double maxMillis() {
+      return maxMicros / 1000.0;
+    }
+
+    // Percentile (0 - 100) in milliseconds, reported as the top of the bucket
+    // it falls in, but never more than the largest value recorded
+    public double percentileMillis(double percentile) {
+      if (count == 0) {
+        return 0.0;
+      }
+
+      long rank = (long) Math.ceil(count * percentile / 100.0);
+      long seen = 0;
+
+      for (int i = 0; i < BUCKET_COUNT; i++) {
+        seen += counts[i];
+        if (seen >= rank) {
+          return Math.min(bucketUpperBound(i), maxMicros) / 1000.0;
+        }
+      }
+
+      return maxMillis();
+    }
+  }
+}
@@ -6,14 +6,13 @@
 /* the project.                                                               */
 /*----------------------------------------------------------------------------*/
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
-import java.util.HashMap;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -26,13 +25,13 @@ import edu.wpi.cscore.MjpegServer;
 import edu.wpi.cscore.UsbCamera;
 import edu.wpi.cscore.VideoSource;
 import edu.wpi.cscore.CvSource;
-import edu.wpi.cscore.CvSink;
+import edu.wpi.cscore.VideoMode;
 import edu.wpi.cscore.VideoMode.PixelFormat;   
 import edu.wpi.first.cameraserver.CameraServer;
 import edu.wpi.first.networktables.NetworkTableInstance;
 import edu.wpi.first.networktables.NetworkTable;
 import edu.wpi.first.networktables.NetworkTableEntry;
-import edu.wpi.first.vision.VisionThread;
+import edu.wpi.first.networktables.NetworkTablesJNI;
 
 import org.opencv.core.*;
 import org.opencv.imgproc.*;
@@ -67,6 +66,24 @@ import org.opencv.imgproc.*;
                        }
                    ]
                }
+               "pipeline": {                            // optional, or true
+                   "table": <NetworkTables table>       // optional, "vision/<camera name>"
+                   "stream port": <overlay MJPEG port>  // optional
+                   "core": <CPU core to run on>         // optional
+                   "overlay fps": <overlay frame rate>  // optional
+                   "frame budget ms": <processing time> // optional, 0 for a fixed resolution
+                   "all pairs": <true or false>         // optional, publish every target pair
+                   "threshold stripes": <thread count>  // optional, 1 to threshold on one thread
+                   "scene refresh frames": <frames>     // optional, 0 to process every frame
+                   "blob engine": <"contours" or "blobs"> // optional
+                   "graph": [ <stage config>, ... ]     // optional, see StageGraph
+                   "record every": <frames>             // optional, 0 to not record
+                   "record seconds": <seconds dumped>   // optional, see FrameRecorder
+                   "calibration": <pixels per inch file> // optional, see CalibrationTable
+                   "parameters": {                      // optional, see VisionParameters
+                       <parameter name>: <value>
+                   }
+               }
            }
        ]
    }
@@ -80,10 +97,10 @@ import org.opencv.imgproc.*;
 public final class Main {
 
   public static final int MJPEG_OPENCV_SERVER_PORT = 1183;
+  // Overlay stream size when the camera doesn't say what its size is
   public static final double IMAGE_WIDTH_PIXELS = 320.0;
   public static final double IMAGE_HEIGHT_PIXELS = 240.0;
   public static final int DEFAULT_FRAME_RATE = 30;
-  public static final double HALF_IMAGE_WIDTH_IN_PIXELS = IMAGE_WIDTH_PIXELS / 2.0;
 
   public static final int TARGETING_STATE_SEARCHING = 0;
   public static final int TARGETING_STATE_ACQUIRING = 1;
@@ -92,35 +109,90 @@ public final class Main {
   public static final double TARGET_HEIGHT_INCHES = 5.5;
   public static final double TARGET_WIDTH_INCHES = 2.0;
 
-  public static final double TARGET_ASPECT_RATIO_TOLERANCE = .20;
-  public static final double TARGET_ASPECT_RATIO_FOR_LOW_ANGLE = TARGET_HEIGHT_INCHES / TARGET_WIDTH_INCHES;
-  public static final double TARGET_ASPECT_RATIO_MIN_THRESHOLD_FOR_LOW_ANGLE = TARGET_ASPECT_RATIO_FOR_LOW_ANGLE
-      - (TARGET_ASPECT_RATIO_FOR_LOW_ANGLE * TARGET_ASPECT_RATIO_TOLERANCE);
-  public static final double TARGET_ASPECT_RATIO_MAX_THRESHOLD_FOR_LOW_ANGLE = TARGET_ASPECT_RATIO_FOR_LOW_ANGLE
-      + (TARGET_ASPECT_RATIO_FOR_LOW_ANGLE * TARGET_ASPECT_RATIO_TOLERANCE);
-
-  // For the high angle (i.e., the ~-75 degree vision strip), we need to swap the
-  // height and width in the aspect ratio calculation. TODO - not sure why this is
-  // necessary
-  public static final double TARGET_ASPECT_RATIO_FOR_HIGH_ANGLE = TARGET_WIDTH_INCHES / TARGET_HEIGHT_INCHES;
-  public static final double TARGET_ASPECT_RATIO_MIN_THRESHOLD_FOR_HIGH_ANGLE = TARGET_ASPECT_RATIO_FOR_HIGH_ANGLE
-      - (TARGET_ASPECT_RATIO_FOR_HIGH_ANGLE * TARGET_ASPECT_RATIO_TOLERANCE);
-  public static final double TARGET_ASPECT_RATIO_MAX_THRESHOLD_FOR_HIGH_ANGLE = TARGET_ASPECT_RATIO_FOR_HIGH_ANGLE
-      + (TARGET_ASPECT_RATIO_FOR_HIGH_ANGLE * TARGET_ASPECT_RATIO_TOLERANCE);
+  // Between the centres of the two strips of a target
+  public static final double TARGET_SEPARATION_INCHES = 11.125;
 
+  // Defaults for the target strip shape, these can be tuned while running (see
+  // VisionParameters)
+  public static final double TARGET_ASPECT_RATIO_TOLERANCE = .20;
   public static final double TARGET_LOW_ANGLE = -15.0;
   public static final double TARGET_HIGH_ANGLE = -75.0;
   public static final double TARGET_ANGLE_TOLERANCE_IN_DEGREES = 10;
-  public static final double TARGET_LOW_ANGLE_MIN_THRESHOLD = TARGET_LOW_ANGLE - TARGET_ANGLE_TOLERANCE_IN_DEGREES;
-  public static final double TARGET_LOW_ANGLE_MAX_THRESHOLD = TARGET_LOW_ANGLE + TARGET_ANGLE_TOLERANCE_IN_DEGREES;
-  public static final double TARGET_HIGH_ANGLE_MIN_THRESHOLD = TARGET_HIGH_ANGLE - TARGET_ANGLE_TOLERANCE_IN_DEGREES;
-  public static final double TARGET_HIGH_ANGLE_MAX_THRESHOLD = TARGET_HIGH_ANGLE + TARGET_ANGLE_TOLERANCE_IN_DEGREES;
 
-  public static final int MIN_HASH_MAP_DISTANCE = 18;
-  public static final int MAX_HASH_MAP_DISTANCE = 48;
+  public static final int MIN_CALIBRATED_DISTANCE_INCHES = 18;
+  public static final int MAX_CALIBRATED_DISTANCE_INCHES = 48;
 
+  // In pixels of a VisionParameters.REFERENCE_IMAGE_WIDTH wide image, like the
+  // calibration table, and scaled to the resolution the pipeline processes at
   public static final double MINIMUM_HORIZONTAL_OFFSET_REQ_IN_PIXELS = 200.0;
 
+  // Let each worker pick its processing resolution (see ResolutionController)
+  // to keep the time per frame within the budget
+  public static final boolean ADAPTIVE_RESOLUTION_ENABLED = true;
+  public static final double FRAME_BUDGET_MS = 20.0;
+
+  // Publish every target pair in view to "<table>/pairs" as well as the one
+  // nearest the centre (see PairsPacket). Off by default, since it needs the
+  // whole frame searched and so turns off region of interest tracking for the
+  // camera. Can be turned on per camera with the "all pairs" pipeline key.
+  public static final boolean PUBLISH_ALL_PAIRS = false;
+
+  // Threshold each frame in this many horizontal stripes on their own threads
+  // (see ParallelThreshold), 1 for the serial step. Can be set per camera
+  // with the "threshold stripes" pipeline key.
+  public static final int THRESHOLD_STRIPES = 4;
+
+  // Skip frames that are the same as the last one processed and republish its
+  // result (see SceneChangeDetector), but always process at least every
+  // SCENE_REFRESH_FRAMES + 1 frames. Can be set per camera with the "scene
+  // refresh frames" pipeline key, 0 processes every frame.
+  public static final int SCENE_REFRESH_FRAMES = 10;
+
+  // How the pipeline finds the strips in the threshold mask: "contours"
+  // (findContours and the contour filter) or "blobs" (see BlobExtractor). Can
+  // be set per camera with the "blob engine" pipeline key.
+  public static final String BLOB_ENGINE = "contours";
+
+  // Keep every RECORD_EVERY_FRAMES-th frame, its mask and result in a ring file,
+  // and dump the last RECORD_DUMP_SECONDS of it on request or at the end of a
+  // match (see FrameRecorder). The ring holds RECORD_DUMP_SECONDS of recorded
+  // frames at the camera's frame rate, plus RECORD_SPARE_SLOTS for frames that
+  // come in faster. Can be set per camera with the "record every" and "record
+  // seconds" pipeline keys, 0 frames doesn't record.
+  public static final int RECORD_EVERY_FRAMES = 5;
+  public static final int RECORD_SPARE_SLOTS = 10;
+  public static final double RECORD_DUMP_SECONDS = 10.0;
+  public static final String RECORDING_DIRECTORY = "/home/pi/recordings";
+
+  // Publish a smoothed estimate predicted between frames (see TargetTracker)
+  public static final boolean TRACKER_ENABLED = true;
+  public static final double TRACKER_PUBLISH_RATE_HZ = 100.0;
+
+  // Have the pipeline's contour filter do the target angle and aspect ratio
+  // checks. The rotated rectangle is then only computed for contours that
+  // already passed the cheaper filter criteria.
+  public static final boolean FOLD_TARGET_SHAPE_INTO_FILTER = true;
+
+  // Once a target pair has been found, only search the area around it (plus a
+  // margin for motion) in the following frames. After ROI_MAX_MISSES frames
+  // without a target pair we go back to searching the full image. Used on
+  // every camera that isn't publishing all pairs (see PUBLISH_ALL_PAIRS),
+  // since the other pairs would never be seen.
+  public static final boolean ROI_TRACKING_ENABLED = true;
+  public static final int ROI_MIN_MARGIN_PIXELS = 16;
+  public static final int ROI_MAX_MISSES = 5;
+
+  // Run capture, processing, overlay drawing and overlay streaming on separate
+  // threads connected by rings of FRAME_QUEUE_CAPACITY frames. When false,
+  // each frame is handled start to finish on a single thread.
+  public static final boolean STAGED_VISION_WORKERS = true;
+  public static final int FRAME_QUEUE_CAPACITY = 2;
+
+  // Maximum frame rate of the overlay stream, which is only drawn while a client
+  // is connected to it or the "overlayDebug" NetworkTables flag is set
+  public static final double OVERLAY_FRAME_RATE = 15.0;
+  public static final int STATUS_BANNER_HEIGHT_PIXELS = 16;
+
   // When we were empirically collecting data for the distance calculation hash
   // map,
   // we observed that the actual measured distance between the front of the camera
@@ -134,6 +206,45 @@ public final class Main {
   public static final double CAMERA_FOV_ANGLE = 60.010; // FOV Angle determined empirically
   public static final double CAMERA_FOV_ANGLE_CALC = Math.tan(CAMERA_FOV_ANGLE);
 
+  // NetworkTables table used when no camera declares its own pipeline
+  public static final String LEGACY_NETWORK_TABLE = "datatable";
+
+  // Per-stage timing stats are published to a subtable of this for each camera
+  public static final String METRICS_NETWORK_TABLE = "vision/metrics";
+  public static final long METRICS_PUBLISH_PERIOD_MS = 1000;
+
+  // Set once the vision workers are warmed up and running
+  public static final String READY_ENTRY = "vision/ready";
+
+  // Just some color constants for later use in drawing contour overlays and text
+  private static final Scalar GREEN_COLOR = new Scalar(0.0, 255.0, 0.0);
+  private static final Scalar RED_COLOR = new Scalar(0.0, 0.0, 255.0);
+  private static final Scalar BLUE_COLOR = new Scalar(255.0, 0.0, 0.0);
+  private static final Scalar BLACK_COLOR = new Scalar(0.0, 0.0, 0.0);
+  private static final Scalar PURPLE_COLOR = new Scalar(255.0, 0.0, 255.0);
+
+  // Calibration for distance calculations, these values were
+  // collected empirically. The first array is the actual distance in inches
+  // from the front of the camera to the target. The second is
+  // the pixels per inch conversion rate at each distance. Knowing
+  // that the actual distance between the two targets is 11 1/8 inches,
+  // we can use this conversion rate to calculate the horizontal offset
+  // at each distance.
+  private static final double[] CALIBRATION_DISTANCES_INCHES = { 18, 19, 20, 21, 22, 23, 24, 25, 26, 27, 28, 29, 30,
+      31, 32, 33, 34, 35, 36, 37, 38, 39, 40, 41, 42, 43, 44, 45, 46, 47, 48 };
+  private static final double[] CALIBRATION_PIXELS_PER_INCH = {
+      16.62921348, 16.0, 15.5505618, 14.29213483, 13.84269663, 13.21348315, 12.85393258, 12.49438202,
+      12.13483146, 11.7752809, 11.3258427, 10.96629213, 10.60674157, 10.33707865, 10.06741573, 9.707865169,
+      9.438202247, 9.078651685, 8.898876404, 8.719101124, 8.539325843, 8.269662921, 8.08988764, 7.91011236,
+      7.730337079, 7.550561798, 7.280898876, 7.191011236, 7.011235955, 6.921348315, 6.741573034 };
+
+  // Looked up between the samples, and up to half an inch either side of them
+  // (the range that used to round to a sample). A camera can use its own
+  // table instead (see "calibration" in the JSON format above).
+  public static final CalibrationTable DEFAULT_PIXELS_PER_INCH_TABLE = new CalibrationTable(
+      CALIBRATION_DISTANCES_INCHES, CALIBRATION_PIXELS_PER_INCH, CalibrationTable.LINEAR,
+      MIN_CALIBRATED_DISTANCE_INCHES - 0.5, MAX_CALIBRATED_DISTANCE_INCHES + 0.5);
+
   private static String configFile = "/boot/frc.json";
 
   public static class CameraConfig {
@@ -141,17 +252,68 @@ public final class Main {
     public String path;
     public JsonObject config;
     public JsonElement streamConfig;
+    public JsonObject pipelineConfig;
+  }
+
+  // Everything a camera's vision worker needs. Each worker has its own context,
+  // so workers on different cameras don't share any targeting state.
+  public static class VisionContext {
+    public String name;
+    public VideoSource camera;
+    public int cpuCore;
+    public NetworkTable networkTable;
+    public NetworkTableEntry targetingStateEntry;
+    public NetworkTableEntry distanceEntry;
+    public NetworkTableEntry horizontalOffsetEntry;
+    public CvSource outputStream;
+    public MjpegServer mjpegServer;
+    public OverlayCompositor overlay;
+    public ResultPacket resultPacket;
+    public PairsPacket pairsPacket;
+    public VisionMetrics metrics;
+    public long frameCount = 0;
+    public int targetingState = TARGETING_STATE_SEARCHING;
+    public StagedVisionWorker stagedWorker;
+    public DutyCycle dutyCycle;
+    public ResolutionController resolutionController;
+    public TargetTracker tracker;
+    public int thresholdStripes = 1;
+    public int sceneRefreshFrames = 0;
+    public String blobEngine = BLOB_ENGINE;
+
+    // Stages to run instead of MyPipeline, and the graph built from them
+    public JsonArray graphConfig;
+    public StageGraph stageGraph;
+
+    // Black box recording of the frames, or null if not recording
+    public FrameRecorder recorder;
+
+    // Thresholds, filter limits and target shape, tunable while running
+    public ParameterStore parameters;
+
+    // Pixels per inch between the target strips at each distance
+    public CalibrationTable pixelsPerInch = DEFAULT_PIXELS_PER_INCH_TABLE;
+
+    // Result used when the whole frame is processed on one thread
+    public TargetingResult result = new TargetingResult();
+
+    // The last frame that was fully analysed, republished for skipped frames
+    public TargetingResult lastResult = new TargetingResult();
+    public boolean haveLastResult = false;
+
+    // This will be the list of targets that we'll use to determine whether or not
+    // we're locked on the two angle vision tape strips.
+    public List<Rect> targets = new ArrayList<>();
+    public List<RotatedRect> targetRects = new ArrayList<>();
+    public TargetPairer pairer = new TargetPairer();
+
+    // The pair we're locked on to, left strip first (empty if there isn't one)
+    public List<Rect> pairTargets = new ArrayList<>();
   }
 
   public static int team;
   public static boolean server;
   public static List<CameraConfig> cameraConfigs = new ArrayList<>();
-  public static int targetingState = TARGETING_STATE_SEARCHING;
-
-  // This will be the list of targets that we'll use to determine whether or not
-  // we're locked on the two angle vision tape strips.
-  public static List<Rect> targets = new ArrayList<>();
-  public static List<RotatedRect> targetRects = new ArrayList<>();
 
   private Main() {
   }
@@ -192,6 +354,16 @@ public final class Main {
     // stream properties
     cam.streamConfig = config.get("stream");
 
+    // vision pipeline (optional), either true or an object with its settings
+    JsonElement pipelineElement = config.get("pipeline");
+    if (pipelineElement != null) {
+      if (pipelineElement.isJsonObject()) {
+        cam.pipelineConfig = pipelineElement.getAsJsonObject();
+      } else if (pipelineElement.isJsonPrimitive() && pipelineElement.getAsBoolean()) {
+        cam.pipelineConfig = new JsonObject();
+      }
+    }
+
     cam.config = config;
 
     cameraConfigs.add(cam);
@@ -296,6 +468,11 @@ public final class Main {
       configFile = args[0];
     }
 
+    // Warm up the pipeline and analysis on synthetic frames while the cameras
+    // and NetworkTables are starting
+    Warmup warmup = new Warmup();
+    warmup.start();
+
     // Read configuration
     if (!readConfig()) {
       return;
@@ -312,6 +489,10 @@ public final class Main {
       ntinst.startClientTeam(team);
     }
 
+    // Results aren't trustworthy (or fast) until we've warmed up
+    NetworkTableEntry readyEntry = ntinst.getEntry(READY_ENTRY);
+    readyEntry.setBoolean(false);
+
     // Start cameras
     List<VideoSource> cameras = new ArrayList<>();
 
@@ -319,602 +500,848 @@ public final class Main {
       cameras.add(startCamera(cameraConfig));
     }
 
-    // Hash map for distance calculations, these values were
-    // collected empirically. The key is the actual distance in inches
-    // from the front of the camera to the target. The value is
-    // is the pixels per inch conversion rate at each distance. Knowing
-    // that the actual distance between the two targets is 11 1/8 inches,
-    // we can use this conversion rate to calculate the horizontal offset
-    // at each distance.
-    HashMap<Integer, Double> distanceHashMap = new HashMap<Integer, Double>();
-
-    distanceHashMap.put(MIN_HASH_MAP_DISTANCE, 16.62921348);
-    distanceHashMap.put(19, 16.0);
-    distanceHashMap.put(20, 15.5505618);
-    distanceHashMap.put(21, 14.29213483);
-    distanceHashMap.put(22, 13.84269663);
-    distanceHashMap.put(23, 13.21348315);
-    distanceHashMap.put(24, 12.85393258);
-    distanceHashMap.put(25, 12.49438202);
-    distanceHashMap.put(26, 12.13483146);
-    distanceHashMap.put(27, 11.7752809);
-    distanceHashMap.put(28, 11.3258427);
-    distanceHashMap.put(29, 10.96629213);
-    distanceHashMap.put(30, 10.60674157);
-    distanceHashMap.put(31, 10.33707865);
-    distanceHashMap.put(32, 10.06741573);
-    distanceHashMap.put(33, 9.707865169);
-    distanceHashMap.put(34, 9.438202247);
-    distanceHashMap.put(35, 9.078651685);
-    distanceHashMap.put(36, 8.898876404);
-    distanceHashMap.put(37, 8.719101124);
-    distanceHashMap.put(38, 8.539325843);
-    distanceHashMap.put(39, 8.269662921);
-    distanceHashMap.put(40, 8.08988764);
-    distanceHashMap.put(41, 7.91011236);
-    distanceHashMap.put(42, 7.730337079);
-    distanceHashMap.put(43, 7.550561798);
-    distanceHashMap.put(44, 7.280898876);
-    distanceHashMap.put(45, 7.191011236);
-    distanceHashMap.put(46, 7.011235955);
-    distanceHashMap.put(47, 6.921348315);
-    distanceHashMap.put(MAX_HASH_MAP_DISTANCE, 6.741573034);
-
-    NetworkTable networkTable = ntinst.getTable("datatable");
-
-    NetworkTableEntry nteTargetingState = networkTable.getEntry("targState");
-    NetworkTableEntry nteDistanceToTargetInInches = networkTable.getEntry("distTargetIn");
-    NetworkTableEntry nteHorizontalOffsetToTargetInInches = networkTable.getEntry("horzOffToIn");
-
-    CvSink cvSink = new CvSink("openCV Camera");
-
-    Mat openCVOverlay = new Mat();
-
-    // Start image processing on camera 0 if present
-    if (cameras.size() >= 1) {
-
-      // For OpenCV processing, you need a "source" which will be our camera and
-      // a "sink" or "destination" which will be an ouputStream that is fed into 
-      // an MJPEG Server. 
-      // TODO - this will always get the first camera detected and that may be the back camera which is no bueno
-      VideoSource frontCamera = cameras.get(0);
-
-      cvSink.setSource(frontCamera);
-      CvSource outputStream = new CvSource("2228_OpenCV", PixelFormat.kMJPEG, (int) IMAGE_WIDTH_PIXELS,
-          (int) IMAGE_HEIGHT_PIXELS, DEFAULT_FRAME_RATE);
-
-      // This is MJPEG server used to create an overlaid image of what the OpenCV processing is 
-      // coming up with on top of the live streamed image from the robot's front camera.
-      MjpegServer mjpegServer2 = new MjpegServer("serve_openCV", MJPEG_OPENCV_SERVER_PORT);
-      mjpegServer2.setSource(outputStream);
-
-      // Just some color constants for later use in drawing contour overlays and text
-      Scalar greenColor = new Scalar(0.0, 255.0, 0.0);
-      Scalar redColor = new Scalar(0.0, 0.0, 255.0);
-      Scalar blueColor = new Scalar(255.0, 0.0, 0.0);
-      Scalar blackColor = new Scalar(0.0, 0.0, 0.0);
-      Scalar purpleColor = new Scalar(255.0, 0.0, 255.0);
-
-      VisionThread visionThread = new VisionThread(frontCamera, new MyPipeline(), pipeline -> {
-
-        // This grabs a snapshot of the live image currently being streamed
-        cvSink.grabFrame(openCVOverlay);
-
-        // Draw a vertical line down the center of the image (i.e., IMAGE_WIDTH / 2)
-        Imgproc.line(openCVOverlay, new Point(IMAGE_WIDTH_PIXELS / 2, 25),
-            new Point(IMAGE_WIDTH_PIXELS / 2, IMAGE_HEIGHT_PIXELS - 10), greenColor, 1, Core.LINE_4);
-
-        // If, based on the OpenCV pipeline processing, we've found some filtered contours, let's
-        // take a closer look at them. If not, just stay in the SEARCHING state.
-        if (!pipeline.filterContoursOutput().isEmpty()) {
-
-          // Overlay all the filtered contours onto the lived streamed image, this is too distracting
-          // to leave in for competition but might be good for debug.
-          //Imgproc.drawContours(openCVOverlay, pipeline.filterContoursOutput(), -1, blueColor);
-
-          // Let's start out with an empty list of targets and insert ones into the list
-          // that fit our criteria
-          targets.clear();
-          targetRects.clear();
-
-          // We'll now loop though all the filtered contours provided by the OpenCV pipeline and
-          // see if we can find some that match our critera.
-          for (int contourIndex = 0; contourIndex < pipeline.filterContoursOutput().size(); contourIndex++) {
-
-            // When examining each contour that the pipeline provides, we'll first get the bounding 
-            // rectangle that encompases the contour. This rectangle is a vertical/horizontal 
-            // rectangle around the object that is determined to be a contour.
-            Rect rect = Imgproc.boundingRect(pipeline.filterContoursOutput().get(contourIndex));
-
-            // Since the vision tape strips are angled, it is better to find the rotated rectangle that
-            // better fits the shape of the tape strips, so we'll get that here.
-            MatOfPoint2f newMtx = new MatOfPoint2f(pipeline.filterContoursOutput().get(contourIndex).toArray());
-            RotatedRect rotatedRect = Imgproc.minAreaRect(newMtx);
-
-            // The vision tape strips are rotated at specific angles on the game pieces so we'll get
-            // the exact angle of the rotated rectangle for use in later analysis.
-            double rectAspectRatio = (double) rotatedRect.size.height / (double) rotatedRect.size.width;
-            double rotatedAngle = rotatedRect.angle;
-
-            // In order to add a contour to the target list, the following conditions must be met:
-
-            // 1. For low angle target strips (i.e., those around -15 degrees), the rotated
-            //    rectangle's angle must be between TARGET_LOW_ANGLE_MIN_THRESHOLD and
-            //    TARGET_LOW_ANGLE_MAX_THRESHOLD. Also for low angle target strips, the aspect 
-            //    ratio be between TARGET_ASPECT_RATIO_MIN_THRESHOLD_FOR_LOW_ANGLE and
-            //    TARGET_ASPECT_RATIO_MAX_THRESHOLD_FOR_LOW_ANGLE.
-
-            // 2. For high angle target strips (i.e., those around -75 degrees), the rotated
-            //    rectangle's angle must be between TARGET_HIGH_ANGLE_MIN_THRESHOLD and
-            //    TARGET_HIGH_ANGLE_MAX_THRESHOLD. Also for high angle target strips, the aspect 
-            //    ratio be between TARGET_ASPECT_RATIO_MIN_THRESHOLD_FOR_HIGH_ANGLE and
-            //    TARGET_ASPECT_RATIO_MAX_THRESHOLD_FOR_HIGH_ANGLE.
-
-            if ((rotatedAngle >= TARGET_LOW_ANGLE_MIN_THRESHOLD) && (rotatedAngle <= TARGET_LOW_ANGLE_MAX_THRESHOLD)) {
+    // Start a vision worker for every camera that declares a pipeline. If none
+    // do, we fall back to running one on the first camera and publishing to
+    // "datatable", which is what the robot code has always expected.
+    List<VisionContext> visionContexts = new ArrayList<>();
 
-              if ((rectAspectRatio <= TARGET_ASPECT_RATIO_MAX_THRESHOLD_FOR_LOW_ANGLE)
-                  && (rectAspectRatio >= TARGET_ASPECT_RATIO_MIN_THRESHOLD_FOR_LOW_ANGLE)) {
+    for (int i = 0; i < cameraConfigs.size(); i++) {
+      CameraConfig cameraConfig = cameraConfigs.get(i);
 
-                targets.add(rect);
-                targetRects.add(rotatedRect);
+      if (cameraConfig.pipelineConfig != null) {
+        visionContexts.add(createVisionContext(ntinst, cameraConfig, cameras.get(i), visionContexts.size()));
+      }
+    }
 
-              }
-            } else if ((rotatedAngle >= TARGET_HIGH_ANGLE_MIN_THRESHOLD)
-                && (rotatedAngle <= TARGET_HIGH_ANGLE_MAX_THRESHOLD)) {
+    if (visionContexts.isEmpty() && (cameras.size() >= 1)) {
+      // TODO - this will always get the first camera detected and that may be the back camera which is no bueno.
+      // Add a "pipeline" section to the right camera in frc.json to pick it explicitly.
+      CameraConfig legacyConfig = cameraConfigs.get(0);
+      legacyConfig.pipelineConfig = new JsonObject();
+      legacyConfig.pipelineConfig.addProperty("table", LEGACY_NETWORK_TABLE);
+      visionContexts.add(createVisionContext(ntinst, legacyConfig, cameras.get(0), 0));
+    }
 
-              if ((rectAspectRatio <= TARGET_ASPECT_RATIO_MAX_THRESHOLD_FOR_HIGH_ANGLE)
-                  && (rectAspectRatio >= TARGET_ASPECT_RATIO_MIN_THRESHOLD_FOR_HIGH_ANGLE)) {
+    if (visionContexts.isEmpty()) {
+      System.out.println("No cameras found");
+    }
 
-                targets.add(rect);
-                targetRects.add(rotatedRect);
+    warmup.await();
 
-              }
-            }
-          }
-
-          if (analyzeTargets()) {
-            targetingState = TARGETING_STATE_ACQUIRING;
-          }
+    for (VisionContext context : visionContexts) {
+      startVisionWorker(context);
+    }
 
-          // Now that we think that we're looking at the right target (i.e., two correctly
-          // angled vision tape strips with the right aspect ratio), we can move on with
-          // with determining some distance calculations
-          if ((targetingState == TARGETING_STATE_ACQUIRING) && (targets.size() == 2)) {
-
-            // Display the ACQUIRING state text overlaid on the streaming image
-            Imgproc.rectangle(openCVOverlay, new Point(0, 0), new Point(IMAGE_WIDTH_PIXELS - 2, 15), blackColor, -1);
-            Imgproc.putText(openCVOverlay, "Acquiring Target", new Point(2.0, 10.0), Core.FONT_HERSHEY_SIMPLEX, 0.4,
-                redColor, 1);
- 
-            // Get the bounding rectangles that encompass both targets
-            Rect r1 = targets.get(0);
-            Rect r2 = targets.get(1);
-
-            // Determine the upper-left and lower-right points of the rectangle needed
-            // to draw the image of the rectangle overlaid on the streaming image
-            Point r1p1 = new Point(r1.x, r1.y);
-            Point r1p2 = new Point(r1.x + r1.width, r1.y + r1.height);
-
-            // Overlay the bounding rectangle onto image
-            Imgproc.rectangle(openCVOverlay, r1p1, r1p2, blueColor, +1, 4);
-
-            // Determine the "center X" value for the first target. This will be used
-            // later on to calculate the distance, in pixels, between the two vision
-            // tape strips.
-            double contour1CenterXInPixels = r1.x + (r1.width / 2);
-
-            // Determine the upper-left and lower-right points of the rectangle needed
-            // to draw the image of the rectangle overlaid on the streaming image
-            Point r2p1 = new Point(r2.x, r2.y);
-            Point r2p2 = new Point(r2.x + r1.width, r2.y + r1.height);
-
-            // Overlay bounding rectangle onto image
-            Imgproc.rectangle(openCVOverlay, r2p1, r2p2, purpleColor, +1, 4);
-
-            // Determine the "center X" value for the second target. This will be used
-            // later on to calculate the distance, in pixels, between the two vision
-            // tape strips.
-            double contour2CenterXInPixels = r2.x + (r2.width / 2);
-
-            // When far enough away from the side of the Cargo Ship, we can see two
-            // full target strip pairs side by side. Vision was picking up on the
-            // outer-most strips of each target as a valid pair so we need to set
-            // a limit on how far away the strips can be in pixels. There's probably
-            // a better way to do this based on distance to target.
-            if (Math.abs(contour2CenterXInPixels - contour1CenterXInPixels) < MINIMUM_HORIZONTAL_OFFSET_REQ_IN_PIXELS) {
-
-              // We need to determine how far each of the targets is away from the
-              // center of the image. For now, this is measured in pixels but we'll
-              // later be converting the distance to inches.
-              double delta1 = 0.0;
-              double delta2 = 0.0;
-
-              delta1 = HALF_IMAGE_WIDTH_IN_PIXELS - contour1CenterXInPixels;
-              delta2 = contour2CenterXInPixels - HALF_IMAGE_WIDTH_IN_PIXELS;
-
-              // We want to use an average of the two rectangle heights to get a
-              // better approximation of real target height's that we're seeing.
-              // Again, this is still in pixels and we'll use it in the distance
-              // calculation below.
-              double avgPixelHeight = ((double) r1.height + (double) r2.height) / 2.0;
-
-              // Distance Calculation:
-              // distance = TargetHeightInFeet * YRes / (2 * PixelHeight *
-              // tan(ViewAngleOfCamera))
-
-              // The distance calculation now gives us something in a unit of measure (feet)
-              // that we can use to provide guidance to the robot on where it is in relation
-              // to
-              // the target. We ultimately need distance to the target and how far off (left
-              // to
-              // right) we are from the center of the target.
-              double calculatedDistanceToTargetInFeet = ((TARGET_HEIGHT_INCHES / 12.0) * IMAGE_HEIGHT_PIXELS)
-                  / (2.0 * avgPixelHeight * CAMERA_FOV_ANGLE_CALC);
-
-              // This is where things get a little 'hacky'. We determined through recording
-              // the actual
-              // distance between the front of the camera and the target at 1 inch intervals
-              // from 18"
-              // to 48" that the actual distance and calculated distance to the target using
-              // the
-              // equation above was consitently off by DISTANCE_CORRECTION_OFFSET inches, so
-              // we're
-              // subtracting that here. This is likely due to the CAMERA_FOV_ANGLE_CALC being
-              // slightly
-              // off but there is no reliable manufacturer data that gives us the FOV for the
-              // Microsoft
-              // HD cam that we're using.
-              double correctedDistanceToTargetInInches = (calculatedDistanceToTargetInFeet * 12.0)
-                  - DISTANCE_CORRECTION_OFFSET;
-
-              // We'll now populate the network table with the corrected distance information
-              nteDistanceToTargetInInches.setDouble(correctedDistanceToTargetInInches);
-
-              // The next thing we want to do is to determine if the two vision tape strips
-              // are in the horizontal center of the field of view.
-              double horizontalOffsetInPixels = (delta2 - delta1) / 2.0;
-
-              // To visually aid the driver, lets draw a center line overlaid on top of the
-              // streaming
-              // image of where we think the center of the target is. The goal would be to get
-              // the
-              // robot to close the gap between this line and the green line that shows the
-              // center of
-              // the field of view so that both lines align with each other. If we're not
-              // perfectly
-              // lined up, the red line could be on either side of the field of view's center
-              // so we
-              // have to take that into account.
-              if (horizontalOffsetInPixels < 0.0) {
-
-                Imgproc.line(openCVOverlay,
-                    new Point(contour1CenterXInPixels
-                        + (int) Math.round((contour2CenterXInPixels - contour1CenterXInPixels) / 2.0), 25),
-                    new Point(
-                        contour1CenterXInPixels
-                            + (int) Math.round((contour2CenterXInPixels - contour1CenterXInPixels) / 2.0),
-                        IMAGE_HEIGHT_PIXELS - 10),
-                    redColor, 1, Core.LINE_4);
-
-              } else if (horizontalOffsetInPixels > 0.0) {
-
-                Imgproc.line(openCVOverlay,
-                    new Point(contour2CenterXInPixels
-                        - (int) Math.round((contour2CenterXInPixels - contour1CenterXInPixels) / 2.0), 25),
-                    new Point(
-                        contour2CenterXInPixels
-                            - (int) Math.round((contour2CenterXInPixels - contour1CenterXInPixels) / 2.0),
-                        IMAGE_HEIGHT_PIXELS - 10),
-                    redColor, 1, Core.LINE_4);
-
-              }
-
-              // As we described above, we took measurements of a locked-in target at
-              // distances
-              // between 18" and 48" at one inch increments. The other data that we collected
-              // at
-              // each one inch increment, was the calculated distance, in pixels, between the
-              // two
-              // targets. Using this data, we built a "look-up table" that is indexed by an
-              // integer
-              // "key" from 18 to 48. This "key" represents the distance to target, rounded to
-              // the
-              // nearest inch from the camera. The "value" column in the table associated with
-              // each
-              // of these "keys" is a calculated "pixels per inch" value at that given
-              // distance. We
-              // can calculate this because we know the actual distance between the vision
-              // tape strips
-              // is 11 1/8 inches and we recorded the distance, in pixels, between the two
-              // targets using
-              // the OpenCV data provided above. This will give us a way to determine the
-              // distance
-              // in inches that we are off center at any distance from the target between 18
-              // and 48
-              // inches.
-
-              // In order to get the "key" or row in the look-up table that we want, we'll
-              // round
-              // our corrected distance (which is a double) to target to an integer.
-              int roundedDistanceToTargetInInches = (int) Math.round(correctedDistanceToTargetInInches);
-
-              // Let's make sure the key value is valid to be looked up in the table (i.e, it
-              // is
-              // between 18 and 48 inches).
-              if ((roundedDistanceToTargetInInches >= MIN_HASH_MAP_DISTANCE)
-                  && (roundedDistanceToTargetInInches <= MAX_HASH_MAP_DISTANCE)) {
-
-                // At this point we know that we've found two valid targets (right aspect ratio,
-                // right angles) and that we're within our zone of 18 to 48 inches where we can
-                // accurately calculate the horizontal offset distance. Since we know our
-                // distance to target, we can look up the right value in the table to give us
-                // our pixels per inch conversion rate to do our horizontal distance
-                // calculation. We do have one wacky case where, at around 4 feet from the cargo
-                // ship, we can see two cargo holes side by side and that gives us a valid
-                // target orientation by seeing the left strip of the left-most hole and the
-                // right strip of the right-most hole. We need to check for a minimum distance
-                // before going into LOCKED>
-
-                double horizontalOffsetInInches = horizontalOffsetInPixels
-                    / distanceHashMap.get(roundedDistanceToTargetInInches);
-
-                targetingState = TARGETING_STATE_LOCKED;
-
-                // Let's populate the network table with the horizontal offset value
-                nteHorizontalOffsetToTargetInInches.setDouble(horizontalOffsetInInches);
-
-                // Like a number line, think of zero being perfectly centered. Any negative
-                // values mean
-                // that we're looking too far to the left and the real center is to the right. A
-                // positive
-                // number means that we're looking to0 far to the right and the real center is
-                // to the left.
-                if (horizontalOffsetInInches < 0.0) {
-                  Imgproc.rectangle(openCVOverlay, new Point(0, 0), new Point(IMAGE_WIDTH_PIXELS - 2, 15), blackColor,
-                      -1);
-                  Imgproc.putText(openCVOverlay,
-                      "Target locked @ " + roundedDistanceToTargetInInches + " in. away, "
-                          + String.format("%.2f", Math.abs(horizontalOffsetInInches)) + " in. left of ctr",
-                      new Point(2.0, 10.0), Core.FONT_HERSHEY_PLAIN, .7, greenColor, 1);
-
-                } else if (horizontalOffsetInInches > 0.0) {
-                  Imgproc.rectangle(openCVOverlay, new Point(0, 0), new Point(IMAGE_WIDTH_PIXELS - 2, 15), blackColor,
-                      -1);
-                  Imgproc.putText(openCVOverlay,
-                      "Target locked @ " + roundedDistanceToTargetInInches + " in. away, "
-                          + String.format("%.2f", Math.abs(horizontalOffsetInInches)) + " in. right of ctr",
-                      new Point(2.0, 10.0), Core.FONT_HERSHEY_PLAIN, .7, greenColor, 1);
-
-                } else {
-                  Imgproc.rectangle(openCVOverlay, new Point(0, 0), new Point(IMAGE_WIDTH_PIXELS - 2, 15), blackColor,
-                      -1);
-                  Imgproc.putText(openCVOverlay,
-                      "Target locked @ " + roundedDistanceToTargetInInches + " in. away and centered on target",
-                      new Point(2.0, 10.0), Core.FONT_HERSHEY_PLAIN, .7, greenColor, 1);
-
-                }
-              }
-            }
-              
-          } else {
-
-            targetingState = TARGETING_STATE_SEARCHING;
-
-            Imgproc.rectangle(openCVOverlay, new Point(0, 0), new Point(IMAGE_WIDTH_PIXELS - 2, 15), blackColor, -1);
-            Imgproc.putText(openCVOverlay, "Searching...", new Point(2.0, 10.0), Core.FONT_HERSHEY_SIMPLEX, 0.4,
-                redColor, 1);
+    readyEntry.setBoolean(!visionContexts.isEmpty());
 
-          }
-        } else {
+    // **************************************************************************
+    // *
+    // * Main "Forever" Loop
+    // *
+    // **************************************************************************
+    for (;;) {
+      try {
+        Thread.sleep(METRICS_PUBLISH_PERIOD_MS);
+      } catch (InterruptedException ex) {
+        return;
+      }
 
-          targetingState = TARGETING_STATE_SEARCHING;
+      // Publish the timing stats gathered since the last time around
+      for (VisionContext context : visionContexts) {
+        context.metrics.publish();
 
-          Imgproc.rectangle(openCVOverlay, new Point(0, 0), new Point(IMAGE_WIDTH_PIXELS - 2, 15), blackColor, -1);
-          Imgproc.putText(openCVOverlay, "Searching...", new Point(2.0, 10.0), Core.FONT_HERSHEY_SIMPLEX, 0.4, redColor,
-              1);
+        if (context.stagedWorker != null) {
+          context.metrics.publishQueueDepths(context.stagedWorker);
+        }
 
-          System.out.println("No contours found that match filter criteria!!");
+        if (context.stageGraph != null) {
+          context.stageGraph.publishTimings(ntinst.getTable(METRICS_NETWORK_TABLE).getSubTable(context.name)
+              .getSubTable("stages"));
         }
+      }
+    }
+  }
+  
+  // **************************************************************************
+  // *
+  // * Set up the NetworkTables entries and overlay stream for a camera's
+  // * vision worker
+  // *
+  // **************************************************************************
+  public static VisionContext createVisionContext(NetworkTableInstance ntinst, CameraConfig cameraConfig,
+      VideoSource camera, int workerIndex) {
+    JsonObject pipelineConfig = cameraConfig.pipelineConfig;
+
+    String tableName = pipelineConfig.has("table") ? pipelineConfig.get("table").getAsString()
+        : "vision/" + cameraConfig.name;
+    VisionContext context = createAnalysisContext(ntinst, cameraConfig.name, tableName);
+
+    context.camera = camera;
+
+    // Spread the workers across the cores unless the config says otherwise
+    context.cpuCore = pipelineConfig.has("core") ? pipelineConfig.get("core").getAsInt()
+        : workerIndex % Runtime.getRuntime().availableProcessors();
+
+    // The robot turns processing down through the "mode" entry when it isn't aiming
+    context.dutyCycle = new DutyCycle(cameraConfig.name, context.networkTable.getEntry("mode"));
+
+    // Trade resolution for frame rate when the frames take too long
+    double frameBudgetMillis = pipelineConfig.has("frame budget ms")
+        ? pipelineConfig.get("frame budget ms").getAsDouble()
+        : FRAME_BUDGET_MS;
+    if (ADAPTIVE_RESOLUTION_ENABLED && (frameBudgetMillis > 0.0)) {
+      context.resolutionController = new ResolutionController(frameBudgetMillis,
+          (int) MyPipeline.RESIZE_IMAGE_WIDTH, (int) MyPipeline.RESIZE_IMAGE_HEIGHT);
+    }
 
-        // Let's put the targeting state into the network table
-        nteTargetingState.setDouble((double) targetingState);
+    boolean publishAllPairs = pipelineConfig.has("all pairs") ? pipelineConfig.get("all pairs").getAsBoolean()
+        : PUBLISH_ALL_PAIRS;
+    if (!publishAllPairs) {
+      context.pairsPacket = null;
+    }
 
-        // This overlays all of the OpenCV stuff (bounding rectangles, text, etc.) over
-        // the streaming image
-        outputStream.putFrame(openCVOverlay);
-      });
+    context.thresholdStripes = pipelineConfig.has("threshold stripes")
+        ? pipelineConfig.get("threshold stripes").getAsInt()
+        : THRESHOLD_STRIPES;
 
-      // Start the thread's execution. Runs continuously until the program is terminated
-      visionThread.start();
+    context.sceneRefreshFrames = pipelineConfig.has("scene refresh frames")
+        ? pipelineConfig.get("scene refresh frames").getAsInt()
+        : SCENE_REFRESH_FRAMES;
 
-    } else {
-      System.out.println("No cameras found");
+    if (pipelineConfig.has("blob engine")) {
+      context.blobEngine = pipelineConfig.get("blob engine").getAsString();
     }
 
-    // **************************************************************************
-    // *
-    // * Main "Forever" Loop
-    // *
-    // **************************************************************************
-    for (;;) {
+    if (pipelineConfig.has("graph")) {
+      context.graphConfig = pipelineConfig.getAsJsonArray("graph");
+    }
+
+    int recordEvery = pipelineConfig.has("record every") ? pipelineConfig.get("record every").getAsInt()
+        : RECORD_EVERY_FRAMES;
+    double recordSeconds = pipelineConfig.has("record seconds") ? pipelineConfig.get("record seconds").getAsDouble()
+        : RECORD_DUMP_SECONDS;
+    if (recordEvery > 0) {
+      double frameRate = ((cameraConfig.config != null) && cameraConfig.config.has("fps"))
+          ? cameraConfig.config.get("fps").getAsDouble()
+          : DEFAULT_FRAME_RATE;
+      int recordSlots = (int) Math.ceil(Math.max(0.0, recordSeconds) * frameRate / recordEvery)
+          + RECORD_SPARE_SLOTS;
+
+      File directory = new File(RECORDING_DIRECTORY);
+      context.recorder = new FrameRecorder(cameraConfig.name, new File(directory, cameraConfig.name + ".ring"),
+          directory, recordEvery, recordSlots, recordSeconds);
+    }
+
+    if (TRACKER_ENABLED) {
+      context.tracker = new TargetTracker();
+    }
+
+    // Start from the config's parameters rather than the defaults
+    if (pipelineConfig.has("parameters")) {
+      context.parameters.apply(pipelineConfig.getAsJsonObject("parameters"));
+    }
+
+    // The calibration is either a file name or the table itself
+    JsonElement calibration = pipelineConfig.get("calibration");
+    if (calibration != null) {
       try {
-        Thread.sleep(10000);
-      } catch (InterruptedException ex) {
-        return;
+        context.pixelsPerInch = calibration.isJsonObject() ? CalibrationTable.fromJson(calibration.getAsJsonObject())
+            : CalibrationTable.load(calibration.getAsString());
+      } catch (IOException | RuntimeException ex) {
+        System.err.println("could not load calibration for '" + cameraConfig.name + "', using the default: " + ex);
       }
     }
+
+    int streamPort = pipelineConfig.has("stream port") ? pipelineConfig.get("stream port").getAsInt()
+        : MJPEG_OPENCV_SERVER_PORT + workerIndex;
+
+    // For OpenCV processing, you need a "source" which will be our camera and
+    // a "sink" or "destination" which will be an ouputStream that is fed into 
+    // an MJPEG Server. 
+    String suffix = (workerIndex == 0) ? "" : "_" + workerIndex;
+    // The overlay is drawn on the camera frame, so the stream is the camera's size
+    VideoMode cameraMode = camera.getVideoMode();
+    int streamWidth = ((cameraMode != null) && (cameraMode.width > 0)) ? cameraMode.width : (int) IMAGE_WIDTH_PIXELS;
+    int streamHeight = ((cameraMode != null) && (cameraMode.height > 0)) ? cameraMode.height
+        : (int) IMAGE_HEIGHT_PIXELS;
+    context.outputStream = new CvSource("2228_OpenCV" + suffix, PixelFormat.kMJPEG, streamWidth, streamHeight,
+        DEFAULT_FRAME_RATE);
+
+    // This is MJPEG server used to create an overlaid image of what the OpenCV processing is 
+    // coming up with on top of the live streamed image from the camera.
+    context.mjpegServer = new MjpegServer("serve_openCV" + suffix, streamPort);
+    context.mjpegServer.setSource(context.outputStream);
+
+    // The overlay is only drawn and encoded while somebody is watching it (or the
+    // debug flag is set), and at a lower frame rate than the vision loop
+    double overlayFrameRate = pipelineConfig.has("overlay fps") ? pipelineConfig.get("overlay fps").getAsDouble()
+        : OVERLAY_FRAME_RATE;
+    context.overlay = new OverlayCompositor(context.outputStream, context.networkTable.getEntry("overlayDebug"),
+        overlayFrameRate, STATUS_BANNER_HEIGHT_PIXELS);
+
+    return context;
   }
-  
-  private static boolean isTargetOrientationValid(RotatedRect rotatedRect1, RotatedRect rotatedRect2) {
-    boolean isValid = true;
-
-    // Case where targets are oriented like this: / /
-    if ((isHighAngleTarget(rotatedRect1)) && (isHighAngleTarget(rotatedRect2))) {
-      isValid = false;
-    } else if ((isLowAngleTarget(rotatedRect1)) && (isLowAngleTarget(rotatedRect2))) {
-      // Case where targets are oriented like this: \ \
-      isValid = false;
-    } else if ((isLowAngleTarget(rotatedRect1)) && (isHighAngleTarget(rotatedRect2))) {
-      // Case where targets are oriented like this \ /
-      isValid = false;
-    }
-    return isValid;
+
+  // **************************************************************************
+  // *
+  // * Set up just the NetworkTables entries that analyzeFrame() writes to. This
+  // * is all that's needed to analyse frames without a camera or an overlay
+  // * stream (e.g., from the benchmarks).
+  // *
+  // **************************************************************************
+  public static VisionContext createAnalysisContext(NetworkTableInstance ntinst, String name, String tableName) {
+    VisionContext context = new VisionContext();
+
+    context.name = name;
+    context.cpuCore = -1;
+    context.networkTable = ntinst.getTable(tableName);
+    context.targetingStateEntry = context.networkTable.getEntry("targState");
+    context.distanceEntry = context.networkTable.getEntry("distTargetIn");
+    context.horizontalOffsetEntry = context.networkTable.getEntry("horzOffToIn");
+
+    // The whole result for a frame as one timestamped entry. The separate entries
+    // above are still written for older robot code.
+    context.resultPacket = new ResultPacket(ntinst, context.networkTable.getEntry("result"));
+    context.pairsPacket = new PairsPacket(context.networkTable.getEntry("pairs"));
+    context.metrics = new VisionMetrics(ntinst.getTable(METRICS_NETWORK_TABLE).getSubTable(name));
+
+    // Parameters can be changed from the "parameters" subtable at any time
+    context.parameters = new ParameterStore(VisionParameters.DEFAULTS);
+    context.parameters.attach(context.networkTable.getSubTable("parameters"));
+
+    return context;
   }
 
-  private static boolean isHighAngleTarget(RotatedRect rotatedRect) {
-    boolean isHighAngleTarget = false;
+  // **************************************************************************
+  // *
+  // * Create a pipeline set up the way the vision workers run it
+  // *
+  // **************************************************************************
+  public static TargetPipeline createPipeline(VisionContext context) {
+    if (context.graphConfig != null) {
+      try {
+        StageGraph graph = new StageGraph(context.graphConfig);
+        graph.setParameterStore(context.parameters);
+        if (context.sceneRefreshFrames > 0) {
+          graph.setSceneChangeDetector(new SceneChangeDetector(context.sceneRefreshFrames));
+        }
+        context.stageGraph = graph;
+        return graph;
+      } catch (IllegalArgumentException | IllegalStateException ex) {
+        System.err.println("bad pipeline graph for '" + context.name + "', using MyPipeline: " + ex.getMessage());
+      }
+    }
+
+    MyPipeline myPipeline = new MyPipeline(FOLD_TARGET_SHAPE_INTO_FILTER);
+    myPipeline.setMetrics(context.metrics);
+    myPipeline.setParameterStore(context.parameters);
 
-    if ((rotatedRect.angle >= TARGET_HIGH_ANGLE_MIN_THRESHOLD)
-        && (rotatedRect.angle <= TARGET_HIGH_ANGLE_MAX_THRESHOLD)) {
-          isHighAngleTarget = true;
+    if (context.thresholdStripes > 1) {
+      myPipeline.setParallelThreshold(new ParallelThreshold(context.name, context.thresholdStripes));
     }
 
-    return isHighAngleTarget;
+    if (context.sceneRefreshFrames > 0) {
+      myPipeline.setSceneChangeDetector(new SceneChangeDetector(context.sceneRefreshFrames));
+    }
+
+    if ("blobs".equals(context.blobEngine)) {
+      myPipeline.setBlobExtractor(new BlobExtractor());
+    } else if (!"contours".equals(context.blobEngine)) {
+      System.err.println("unknown blob engine '" + context.blobEngine + "' for '" + context.name
+          + "', using contours");
+    }
+
+    // Only the camera workers have a controller, the replay and the warm-up
+    // process at the fixed resolution
+    if (context.resolutionController != null) {
+      myPipeline.setResolutionController(context.resolutionController);
+    }
+
+    // Publishing every pair needs the whole frame searched
+    if (ROI_TRACKING_ENABLED && (context.pairsPacket == null)) {
+      myPipeline.enableRegionOfInterest(ROI_MIN_MARGIN_PIXELS, ROI_MAX_MISSES);
+    }
+
+    return myPipeline;
   }
 
-  private static boolean isLowAngleTarget(RotatedRect rotatedRect) {
-    boolean isLowAngleTarget = false;
+  // **************************************************************************
+  // *
+  // * Start the thread that runs the pipeline on a camera
+  // *
+  // **************************************************************************
+  public static void startVisionWorker(VisionContext context) {
+    System.out.println("Starting vision worker for '" + context.name + "' on core " + context.cpuCore
+        + ", publishing to " + context.networkTable.getPath());
+
+    TargetPipeline myPipeline = createPipeline(context);
+    if (myPipeline instanceof MyPipeline) {
+      System.out.println("Filter contours plan for '" + context.name + "': "
+          + ((MyPipeline) myPipeline).filterContoursPlan);
+    }
+
+    if (context.tracker != null) {
+      context.tracker.startPublishing(context.name, context.networkTable.getInstance(),
+          context.networkTable.getEntry("tracked"), TRACKER_PUBLISH_RATE_HZ);
+    }
 
-    if ((rotatedRect.angle >= TARGET_LOW_ANGLE_MIN_THRESHOLD)
-        && (rotatedRect.angle <= TARGET_LOW_ANGLE_MAX_THRESHOLD)) {
-      isLowAngleTarget = true;
+    if (context.recorder != null) {
+      context.recorder.start(context.networkTable);
     }
 
-    return isLowAngleTarget;
+    if (STAGED_VISION_WORKERS) {
+      // Capture, process, annotate and publish each run on their own thread
+      context.stagedWorker = new StagedVisionWorker(context, myPipeline, FRAME_QUEUE_CAPACITY);
+      context.stagedWorker.start();
+      return;
+    }
+
+    // The vision thread grabs each frame once and hands that same frame to both the
+    // pipeline and this listener, so the overlay is drawn on the frame that was analysed.
+    FrameVisionThread<TargetPipeline> visionThread = new FrameVisionThread<>(context.camera, myPipeline,
+        (pipeline, openCVOverlay, frameTime) -> processFrame(context, pipeline, openCVOverlay, frameTime));
+    visionThread.setCpuCore(context.cpuCore);
+    visionThread.setDutyCycle(context.dutyCycle);
+
+    // Start the thread's execution. Runs continuously until the program is terminated
+    visionThread.start();
   }
 
-  private static boolean analyzeTargets() {
+  // **************************************************************************
+  // *
+  // * Analyse, annotate and stream one frame on the calling thread
+  // *
+  // **************************************************************************
+  public static void processFrame(VisionContext context, TargetPipeline pipeline, Mat openCVOverlay, long frameTime) {
+    analyzeFrame(context, pipeline, ++context.frameCount, frameTime, context.result);
+    recordFrame(context, pipeline, openCVOverlay, context.result);
 
-    boolean validTargetPairFound = false;
+    if (!context.overlay.shouldRender()) {
+      return;
+    }
 
-    // We're only going to look at scenarios where
-    // two, three or four targets have been found
-    int numTargetsFound = targets.size();
+    long phaseStart = System.nanoTime();
+    drawOverlay(openCVOverlay, context.result, context.overlay);
+    phaseStart = context.metrics.record(VisionMetrics.OVERLAY, phaseStart);
 
-    if ((numTargetsFound < 2)  || (numTargetsFound > 4)) {
-      validTargetPairFound = false;
-    } else {
-      Rect rFirst = targets.get(0);
-      Rect rLast = targets.get(numTargetsFound - 1);
-
-      // If OpenCV has reversed the order of the rectangles
-      // and put them in the array from right to left instead
-      // of left to right, we'll just reverse the lists.
-      if (rFirst.x > rLast.x) {
-        Collections.reverse(targets);
-        Collections.reverse(targetRects);
-      }
+    // This overlays all of the OpenCV stuff (bounding rectangles, text, etc.) over
+    // the streaming image
+    context.outputStream.putFrame(openCVOverlay);
+    context.metrics.record(VisionMetrics.PUT_FRAME, phaseStart);
+  }
+
+  // **************************************************************************
+  // *
+  // * Hand an analysed frame to the recorder, if there is one. The frame must
+  // * not have had the overlay drawn on it yet.
+  // *
+  // **************************************************************************
+  public static void recordFrame(VisionContext context, TargetPipeline pipeline, Mat frame, TargetingResult result) {
+    if (context.recorder != null) {
+      long start = System.nanoTime();
+      context.recorder.record(frame, pipeline.rgbThresholdOutput(), result);
+      context.metrics.record(VisionMetrics.RECORD, start);
     }
-    
-    if (numTargetsFound == 2) {
+  }
 
-      Rect r1 = targets.get(0);
-      Rect r2 = targets.get(1);
+  // **************************************************************************
+  // *
+  // * Analyse the pipeline's output for one frame and publish the results to
+  // * NetworkTables. Everything the overlay needs is saved in the result, so
+  // * the overlay can be drawn later (and on another thread).
+  // *
+  // **************************************************************************
+  public static void analyzeFrame(VisionContext context, TargetPipeline pipeline, long frameId, long frameTime,
+      TargetingResult result) {
 
-      RotatedRect rotRec1;
-      RotatedRect rotRec2;
+    long phaseStart = System.nanoTime();
 
-      if ((r1.x < (IMAGE_WIDTH_PIXELS / 2.0)) && (r2.x > (IMAGE_WIDTH_PIXELS / 2.0))) {
+    // Nothing has changed since the last frame we analysed, so send its result
+    // again for this frame
+    if (pipeline.reusedLastFrame() && context.haveLastResult) {
+      republishLastResult(context, pipeline, frameId, frameTime, result);
+      return;
+    }
 
-        rotRec1 = targetRects.get(0);
-        rotRec2 = targetRects.get(1);
+    result.clear();
+    context.pairer.clear();
+    result.frameId = frameId;
+    result.frameTime = frameTime;
 
-        validTargetPairFound = isTargetOrientationValid(rotRec1, rotRec2);
+    // The geometry below is in pixels of the image the pipeline processed,
+    // which changes size with the resolution controller. Limits and
+    // calibration are for a reference width image, so they're scaled to it.
+    double imageWidth = pipeline.processingWidth();
+    double imageHeight = pipeline.processingHeight();
+    double halfImageWidth = imageWidth / 2.0;
+    double referenceScale = imageWidth / VisionParameters.REFERENCE_IMAGE_WIDTH;
+    result.imageWidth = pipeline.processingWidth();
+    result.imageHeight = pipeline.processingHeight();
 
-      } else {
-        validTargetPairFound = false;
-      }
-    } else if (numTargetsFound == 3) {
+    // If, based on the OpenCV pipeline processing, we've found some filtered contours, let's
+    // take a closer look at them. If not, just stay in the SEARCHING state.
+    if (!pipeline.filterContoursGeometry().isEmpty()) {
 
-      Rect r1 = targets.get(0);
-      Rect r2 = targets.get(1);
-      Rect r3 = targets.get(2);
+      // Overlay all the filtered contours onto the lived streamed image, this is too distracting
+      // to leave in for competition but might be good for debug.
+      //Imgproc.drawContours(openCVOverlay, pipeline.filterContoursOutput(), -1, BLUE_COLOR);
 
-      RotatedRect rotRec1;
-      RotatedRect rotRec2;
-      RotatedRect rotRec3;
+      classifyTargets(context, pipeline);
 
-      if ((r1.x < (IMAGE_WIDTH_PIXELS / 2.0)) && (r2.x > (IMAGE_WIDTH_PIXELS / 2.0))) {
+      phaseStart = context.metrics.record(VisionMetrics.CLASSIFY_TARGETS, phaseStart);
 
-        rotRec1 = targetRects.get(0);
-        rotRec2 = targetRects.get(1);
+      if (analyzeTargets(context, pipeline.parameters(), imageWidth)) {
+        context.targetingState = TARGETING_STATE_ACQUIRING;
+      }
 
-        validTargetPairFound = isTargetOrientationValid(rotRec1, rotRec2);
+      phaseStart = context.metrics.record(VisionMetrics.ANALYZE_TARGETS, phaseStart);
+
+      // Now that we think that we're looking at the right target (i.e., two correctly
+      // angled vision tape strips with the right aspect ratio), we can move on with
+      // with determining some distance calculations
+      if ((context.targetingState == TARGETING_STATE_ACQUIRING) && (context.pairTargets.size() == 2)) {
+
+        // Get the bounding rectangles that encompass both targets and save them
+        // for the overlay
+        Rect r1 = context.pairTargets.get(0);
+        Rect r2 = context.pairTargets.get(1);
+
+        result.pairFound = true;
+        copyRect(r1, result.leftTarget);
+        copyRect(r2, result.rightTarget);
+
+        // Determine the "center X" value for the first target. This will be used
+        // later on to calculate the distance, in pixels, between the two vision
+        // tape strips.
+        double contour1CenterXInPixels = TargetPairer.centerX(r1);
+
+        // Determine the "center X" value for the second target. This will be used
+        // later on to calculate the distance, in pixels, between the two vision
+        // tape strips.
+        double contour2CenterXInPixels = TargetPairer.centerX(r2);
+
+        // When far enough away from the side of the Cargo Ship, we can see two
+        // full target strip pairs side by side. Vision was picking up on the
+        // outer-most strips of each target as a valid pair so we need to set
+        // a limit on how far away the strips can be in pixels. There's probably
+        // a better way to do this based on distance to target.
+        if (Math.abs(contour2CenterXInPixels - contour1CenterXInPixels)
+            < MINIMUM_HORIZONTAL_OFFSET_REQ_IN_PIXELS * referenceScale) {
+
+          // We need to determine how far each of the targets is away from the
+          // center of the image. For now, this is measured in pixels but we'll
+          // later be converting the distance to inches.
+          double delta1 = 0.0;
+          double delta2 = 0.0;
+
+          delta1 = halfImageWidth - contour1CenterXInPixels;
+          delta2 = contour2CenterXInPixels - halfImageWidth;
+
+          // We want to use an average of the two rectangle heights to get a
+          // better approximation of real target height's that we're seeing.
+          // Again, this is still in pixels and we'll use it in the distance
+          // calculation below.
+          double avgPixelHeight = ((double) r1.height + (double) r2.height) / 2.0;
+
+          // Distance Calculation:
+          // distance = TargetHeightInFeet * YRes / (2 * PixelHeight *
+          // tan(ViewAngleOfCamera))
+
+          // The distance calculation now gives us something in a unit of measure (feet)
+          // that we can use to provide guidance to the robot on where it is in relation
+          // to
+          // the target. We ultimately need distance to the target and how far off (left
+          // to
+          // right) we are from the center of the target.
+          double calculatedDistanceToTargetInFeet = distanceToTargetInFeet(avgPixelHeight, imageHeight);
+
+          // This is where things get a little 'hacky'. We determined through recording
+          // the actual
+          // distance between the front of the camera and the target at 1 inch intervals
+          // from 18"
+          // to 48" that the actual distance and calculated distance to the target using
+          // the
+          // equation above was consitently off by DISTANCE_CORRECTION_OFFSET inches, so
+          // we're
+          // subtracting that here. This is likely due to the CAMERA_FOV_ANGLE_CALC being
+          // slightly
+          // off but there is no reliable manufacturer data that gives us the FOV for the
+          // Microsoft
+          // HD cam that we're using.
+          double correctedDistanceToTargetInInches = (calculatedDistanceToTargetInFeet * 12.0)
+              - DISTANCE_CORRECTION_OFFSET;
+
+          // We'll now populate the network table with the corrected distance information
+          context.distanceEntry.setDouble(correctedDistanceToTargetInInches);
+
+          // The next thing we want to do is to determine if the two vision tape strips
+          // are in the horizontal center of the field of view.
+          double horizontalOffsetInPixels = (delta2 - delta1) / 2.0;
+
+          // Save what the overlay needs to draw the center of the target
+          result.pairInRange = true;
+          result.contour1CenterXInPixels = contour1CenterXInPixels;
+          result.contour2CenterXInPixels = contour2CenterXInPixels;
+          result.horizontalOffsetInPixels = horizontalOffsetInPixels;
+          result.distanceToTargetInInches = correctedDistanceToTargetInInches;
+
+          // As we described above, we took measurements of a locked-in target at
+          // distances between 18" and 48" at one inch increments. The other data that
+          // we collected at each one inch increment, was the calculated distance, in
+          // pixels, between the two targets. Using this data, we built a calibration
+          // table of the "pixels per inch" value at each distance. We can calculate
+          // this because we know the actual distance between the vision tape strips
+          // is 11 1/8 inches and we recorded the distance, in pixels, between the two
+          // targets using the OpenCV data provided above. The table interpolates
+          // between the measurements, which gives us a way to determine the distance
+          // in inches that we are off center at any distance within its bounds.
+
+          // The rounded distance is only reported, the lookup uses the exact one
+          int roundedDistanceToTargetInInches = (int) Math.round(correctedDistanceToTargetInInches);
+          double pixelsPerInch = context.pixelsPerInch.lookup(correctedDistanceToTargetInInches) * referenceScale;
+
+          // Let's make sure the distance is within the table's bounds (i.e, the
+          // lookup didn't come back as NaN).
+          if (!Double.isNaN(pixelsPerInch)) {
+
+            // At this point we know that we've found two valid targets (right aspect ratio,
+            // right angles) and that we're within our zone of 18 to 48 inches where we can
+            // accurately calculate the horizontal offset distance. Since we know our
+            // distance to target, we can look up the right value in the table to give us
+            // our pixels per inch conversion rate to do our horizontal distance
+            // calculation. We do have one wacky case where, at around 4 feet from the cargo
+            // ship, we can see two cargo holes side by side and that gives us a valid
+            // target orientation by seeing the left strip of the left-most hole and the
+            // right strip of the right-most hole. We need to check for a minimum distance
+            // before going into LOCKED>
+
+            double horizontalOffsetInInches = horizontalOffsetInPixels / pixelsPerInch;
+
+            context.targetingState = TARGETING_STATE_LOCKED;
+
+            // Let's populate the network table with the horizontal offset value
+            context.horizontalOffsetEntry.setDouble(horizontalOffsetInInches);
+
+            result.roundedDistanceToTargetInInches = roundedDistanceToTargetInInches;
+            result.horizontalOffsetInInches = horizontalOffsetInInches;
+          }
 
-        if (validTargetPairFound) {
-          targets.remove(2);
-          targetRects.remove(2);
+          context.metrics.record(VisionMetrics.DISTANCE, phaseStart);
         }
+          
+      } else {
 
-      } else if ((r2.x < (IMAGE_WIDTH_PIXELS / 2.0)) && (r3.x > (IMAGE_WIDTH_PIXELS / 2.0))) {
-        rotRec2 = targetRects.get(1);
-        rotRec3 = targetRects.get(2);
+        context.targetingState = TARGETING_STATE_SEARCHING;
 
-        validTargetPairFound = isTargetOrientationValid(rotRec2, rotRec3);
+      }
+    } else {
 
-        if (validTargetPairFound) {
-          targets.remove(0);
-          targetRects.remove(0);
-        }
+      context.targetingState = TARGETING_STATE_SEARCHING;
+
+      System.out.println("No contours found that match filter criteria!!");
+    }
+
+    // Let's put the targeting state into the network table
+    phaseStart = System.nanoTime();
+    result.targetingState = context.targetingState;
+    context.targetingStateEntry.setDouble((double) context.targetingState);
+
+    // Publish every pair we found, it's flushed with the result packet
+    if (context.pairsPacket != null) {
+      publishPairs(context, result, imageWidth, imageHeight);
+    }
+
+    // Publish the whole result as one timestamped packet and flush it
+    context.resultPacket.publish(result);
+    if (context.tracker != null) {
+      context.tracker.update(result);
+    }
+    context.metrics.record(VisionMetrics.NT_PUBLISH, phaseStart);
+
+    // Time from the frame being captured to its result being published
+    context.metrics.recordNanos(VisionMetrics.FRAME, (NetworkTablesJNI.now() - frameTime) * 1000);
+
+    context.lastResult.copyFrom(result);
+    context.haveLastResult = true;
+
+    // Tell the pipeline where the target pair is (if we have one) so that it
+    // only searches around it in the next frame
+    if (pipeline.regionOfInterest() != null) {
+      if (context.targetingState != TARGETING_STATE_SEARCHING) {
+        pipeline.regionOfInterest().track(context.pairTargets);
       } else {
-        validTargetPairFound = false;
+        pipeline.regionOfInterest().miss();
       }
+    }
+  }
 
-    } else if (numTargetsFound == 4) {
-      Rect r1 = targets.get(0);
-      Rect r2 = targets.get(1);
-      Rect r3 = targets.get(2);
-      Rect r4 = targets.get(3);
+  // **************************************************************************
+  // *
+  // * Publish the last analysed frame's result (and pairs) again, stamped with
+  // * this frame's id and time
+  // *
+  // **************************************************************************
+  private static void republishLastResult(VisionContext context, TargetPipeline pipeline, long frameId, long frameTime,
+      TargetingResult result) {
+    long phaseStart = System.nanoTime();
 
-      RotatedRect rotRec1;
-      RotatedRect rotRec2;
-      RotatedRect rotRec3;
-      RotatedRect rotRec4;
+    result.copyFrom(context.lastResult);
+    result.frameId = frameId;
+    result.frameTime = frameTime;
 
-      if ((r1.x < (IMAGE_WIDTH_PIXELS / 2.0)) && (r2.x > (IMAGE_WIDTH_PIXELS / 2.0))) {
+    // The pairer still has the last analysed frame's pairs
+    if (context.pairsPacket != null) {
+      publishPairs(context, result, pipeline.processingWidth(), pipeline.processingHeight());
+    }
 
-        rotRec1 = targetRects.get(0);
-        rotRec2 = targetRects.get(1);
+    context.resultPacket.publish(result);
+    if (context.tracker != null) {
+      context.tracker.update(result);
+    }
+    context.metrics.record(VisionMetrics.NT_PUBLISH, phaseStart);
 
-        validTargetPairFound = isTargetOrientationValid(rotRec1, rotRec2);
+    context.metrics.recordNanos(VisionMetrics.FRAME, (NetworkTablesJNI.now() - frameTime) * 1000);
+  }
 
-        if (validTargetPairFound) {
-          targets.remove(3);
-          targetRects.remove(3);
-          targets.remove(2);
-          targetRects.remove(2);
-        }
+  // **************************************************************************
+  // *
+  // * Distance to a target whose strips are avgPixelHeight pixels tall, before
+  // * the DISTANCE_CORRECTION_OFFSET is applied:
+  // *
+  // * distance = TargetHeightInFeet * YRes / (2 * PixelHeight * tan(ViewAngleOfCamera))
+  // *
+  // **************************************************************************
+  static double distanceToTargetInFeet(double avgPixelHeight, double imageHeight) {
+    return ((TARGET_HEIGHT_INCHES / 12.0) * imageHeight) / (2.0 * avgPixelHeight * CAMERA_FOV_ANGLE_CALC);
+  }
 
-      } else if ((r2.x < (IMAGE_WIDTH_PIXELS / 2.0)) && (r3.x > (IMAGE_WIDTH_PIXELS / 2.0))) {
-        rotRec2 = targetRects.get(1);
-        rotRec3 = targetRects.get(2);
+  // **************************************************************************
+  // *
+  // * Publish the distance, offset and confidence of every pair the pairer
+  // * found, using the same calculations as the pair we lock on to
+  // *
+  // **************************************************************************
+  private static void publishPairs(VisionContext context, TargetingResult result, double imageWidth,
+      double imageHeight) {
+    TargetPairer pairer = context.pairer;
+    double halfImageWidth = imageWidth / 2.0;
+    double referenceScale = imageWidth / VisionParameters.REFERENCE_IMAGE_WIDTH;
 
-        validTargetPairFound = isTargetOrientationValid(rotRec2, rotRec3);
+    context.pairsPacket.begin(result, pairer.pairCount());
 
-        if (validTargetPairFound) {
-          targets.remove(3);
-          targetRects.remove(3);
-          targets.remove(0);
-          targetRects.remove(0);
-        }
-      } else if ((r3.x < (IMAGE_WIDTH_PIXELS / 2.0)) && (r4.x > (IMAGE_WIDTH_PIXELS / 2.0))) {
-        rotRec3 = targetRects.get(2);
-        rotRec4 = targetRects.get(3);
+    for (int pair = 0; pair < pairer.pairCount(); pair++) {
+      double distanceInInches = (distanceToTargetInFeet(pairer.pairHeight(pair), imageHeight) * 12.0)
+          - DISTANCE_CORRECTION_OFFSET;
 
-        validTargetPairFound = isTargetOrientationValid(rotRec3, rotRec4);
+      double horizontalOffsetInPixels = ((pairer.pairLeftX(pair) + pairer.pairRightX(pair)) / 2.0) - halfImageWidth;
+      double pixelsPerInch = context.pixelsPerInch.lookup(distanceInInches) * referenceScale;
 
-        if (validTargetPairFound) {
-          targets.remove(1);
-          targetRects.remove(1);
-          targets.remove(0);
-          targetRects.remove(0);
+      // NaN (i.e., unknown) when the distance is outside the calibration
+      context.pairsPacket.add(distanceInInches, horizontalOffsetInPixels / pixelsPerInch,
+          pairer.pairConfidence(pair));
+    }
 
-        } else {
-          validTargetPairFound = false;
-        }
+    context.pairsPacket.publish();
+  }
+
+  // **************************************************************************
+  // *
+  // * Draw the targeting result over the frame it was found in
+  // *
+  // **************************************************************************
+  public static void drawOverlay(Mat openCVOverlay, TargetingResult result, OverlayCompositor overlay) {
+    double overlayWidth = openCVOverlay.cols();
+    double overlayHeight = openCVOverlay.rows();
+
+    // Draw a vertical line down the center of the image
+    Imgproc.line(openCVOverlay, new Point(overlayWidth / 2, 25), new Point(overlayWidth / 2, overlayHeight - 10),
+        GREEN_COLOR, 1, Core.LINE_4);
+
+    if (!result.pairFound) {
+      overlay.drawBanner(openCVOverlay, OverlayCompositor.BANNER_SEARCHING);
+      return;
+    }
+
+    // The result is in pixels of the image the pipeline processed, which
+    // isn't always the size of the camera frame we're drawing on
+    double scaleX = overlayWidth / result.imageWidth;
+    double scaleY = overlayHeight / result.imageHeight;
+
+    // Display the ACQUIRING state text overlaid on the streaming image
+    overlay.drawBanner(openCVOverlay, OverlayCompositor.BANNER_ACQUIRING);
+
+    Rect r1 = result.leftTarget;
+    Rect r2 = result.rightTarget;
+
+    // Determine the upper-left and lower-right points of the rectangle needed
+    // to draw the image of the rectangle overlaid on the streaming image
+    Point r1p1 = new Point(r1.x * scaleX, r1.y * scaleY);
+    Point r1p2 = new Point((r1.x + r1.width) * scaleX, (r1.y + r1.height) * scaleY);
+
+    // Overlay the bounding rectangle onto image
+    Imgproc.rectangle(openCVOverlay, r1p1, r1p2, BLUE_COLOR, +1, 4);
+
+    // Determine the upper-left and lower-right points of the rectangle needed
+    // to draw the image of the rectangle overlaid on the streaming image
+    Point r2p1 = new Point(r2.x * scaleX, r2.y * scaleY);
+    Point r2p2 = new Point((r2.x + r1.width) * scaleX, (r2.y + r1.height) * scaleY);
+
+    // Overlay bounding rectangle onto image
+    Imgproc.rectangle(openCVOverlay, r2p1, r2p2, PURPLE_COLOR, +1, 4);
+
+    if (!result.pairInRange) {
+      return;
+    }
+
+    double contour1CenterXInPixels = result.contour1CenterXInPixels * scaleX;
+    double contour2CenterXInPixels = result.contour2CenterXInPixels * scaleX;
+
+    // To visually aid the driver, lets draw a center line overlaid on top of the
+    // streaming image of where we think the center of the target is. The goal would
+    // be to get the robot to close the gap between this line and the green line that
+    // shows the center of the field of view so that both lines align with each other.
+    // If we're not perfectly lined up, the red line could be on either side of the
+    // field of view's center so we have to take that into account.
+    if (result.horizontalOffsetInPixels < 0.0) {
+
+      Imgproc.line(openCVOverlay,
+          new Point(contour1CenterXInPixels
+              + (int) Math.round((contour2CenterXInPixels - contour1CenterXInPixels) / 2.0), 25),
+          new Point(
+              contour1CenterXInPixels
+                  + (int) Math.round((contour2CenterXInPixels - contour1CenterXInPixels) / 2.0),
+              overlayHeight - 10),
+          RED_COLOR, 1, Core.LINE_4);
+
+    } else if (result.horizontalOffsetInPixels > 0.0) {
+
+      Imgproc.line(openCVOverlay,
+          new Point(contour2CenterXInPixels
+              - (int) Math.round((contour2CenterXInPixels - contour1CenterXInPixels) / 2.0), 25),
+          new Point(
+              contour2CenterXInPixels
+                  - (int) Math.round((contour2CenterXInPixels - contour1CenterXInPixels) / 2.0),
+              overlayHeight - 10),
+          RED_COLOR, 1, Core.LINE_4);
+
+    }
+
+    if (result.targetingState != TARGETING_STATE_LOCKED) {
+      return;
+    }
+
+    int roundedDistanceToTargetInInches = result.roundedDistanceToTargetInInches;
+    double horizontalOffsetInInches = result.horizontalOffsetInInches;
+
+    // Like a number line, think of zero being perfectly centered. Any negative
+    // values mean that we're looking too far to the left and the real center is
+    // to the right. A positive number means that we're looking to0 far to the
+    // right and the real center is to the left.
+    if (horizontalOffsetInInches < 0.0) {
+      Imgproc.rectangle(openCVOverlay, new Point(0, 0), new Point(overlayWidth - 2, 15), BLACK_COLOR,
+          -1);
+      Imgproc.putText(openCVOverlay,
+          "Target locked @ " + roundedDistanceToTargetInInches + " in. away, "
+              + String.format("%.2f", Math.abs(horizontalOffsetInInches)) + " in. left of ctr",
+          new Point(2.0, 10.0), Core.FONT_HERSHEY_PLAIN, .7, GREEN_COLOR, 1);
+
+    } else if (horizontalOffsetInInches > 0.0) {
+      Imgproc.rectangle(openCVOverlay, new Point(0, 0), new Point(overlayWidth - 2, 15), BLACK_COLOR,
+          -1);
+      Imgproc.putText(openCVOverlay,
+          "Target locked @ " + roundedDistanceToTargetInInches + " in. away, "
+              + String.format("%.2f", Math.abs(horizontalOffsetInInches)) + " in. right of ctr",
+          new Point(2.0, 10.0), Core.FONT_HERSHEY_PLAIN, .7, GREEN_COLOR, 1);
+
+    } else {
+      Imgproc.rectangle(openCVOverlay, new Point(0, 0), new Point(overlayWidth - 2, 15), BLACK_COLOR,
+          -1);
+      Imgproc.putText(openCVOverlay,
+          "Target locked @ " + roundedDistanceToTargetInInches + " in. away and centered on target",
+          new Point(2.0, 10.0), Core.FONT_HERSHEY_PLAIN, .7, GREEN_COLOR, 1);
+
+    }
+  }
+
+  private static void copyRect(Rect from, Rect to) {
+    to.x = from.x;
+    to.y = from.y;
+    to.width = from.width;
+    to.height = from.height;
+  }
+
+  // **************************************************************************
+  // *
+  // * Build the list of targets (contours shaped like a vision tape strip)
+  // * from the pipeline's filtered contours
+  // *
+  // **************************************************************************
+  static void classifyTargets(VisionContext context, TargetPipeline pipeline) {
+    // Let's start out with an empty list of targets and insert ones into the list
+    // that fit our criteria
+    context.targets.clear();
+    context.targetRects.clear();
+
+    // We'll now loop though all the filtered contours provided by the OpenCV pipeline and
+    // see if we can find some that match our critera.
+    for (int contourIndex = 0; contourIndex < pipeline.filterContoursGeometry().size(); contourIndex++) {
+
+      // The pipeline has already measured each contour it kept, so we use its
+      // geometry rather than copying the contour points out of OpenCV again.
+      ContourGeometry geometry = pipeline.filterContoursGeometry().get(contourIndex);
+
+      // When examining each contour that the pipeline provides, we'll first get the bounding 
+      // rectangle that encompases the contour. This rectangle is a vertical/horizontal 
+      // rectangle around the object that is determined to be a contour.
+      Rect rect = geometry.boundingRect();
+
+      // Since the vision tape strips are angled, it is better to find the rotated rectangle that
+      // better fits the shape of the tape strips, so we'll get that here.
+      RotatedRect rotatedRect = geometry.minAreaRect();
+
+      // The vision tape strips are rotated at specific angles on the game pieces so we'll get
+      // the exact angle of the rotated rectangle for use in later analysis.
+      double rectAspectRatio = (double) rotatedRect.size.height / (double) rotatedRect.size.width;
+      double rotatedAngle = rotatedRect.angle;
+
+      // In order to add a contour to the target list, the following conditions must be met:
+
+      // 1. For low angle target strips (i.e., those around -15 degrees), the rotated
+      //    rectangle's angle must be within the "angleTolerance" parameter of the
+      //    "lowAngle" parameter. Also for low angle target strips, the aspect ratio
+      //    must be within "aspectRatioTolerance" of the strip's height / width.
+
+      // 2. For high angle target strips (i.e., those around -75 degrees), the rotated
+      //    rectangle's angle must be within the "angleTolerance" parameter of the
+      //    "highAngle" parameter. Also for high angle target strips, the aspect ratio
+      //    must be within "aspectRatioTolerance" of the strip's width / height.
+
+      // When the pipeline's filter folds in the target shape, every contour it
+      // hands us has already passed this check.
+      if (pipeline.foldsTargetShape() || pipeline.parameters().isTargetShape(rotatedAngle, rectAspectRatio)) {
+        context.targets.add(rect);
+        context.targetRects.add(rotatedRect);
       }
     }
+  }
+
+  // **************************************************************************
+  // *
+  // * Pick the target pair out of the classified strips into pairTargets,
+  // * left strip first. The classified target lists are left as they are.
+  // *
+  // **************************************************************************
+  static boolean analyzeTargets(VisionContext context, VisionParameters parameters, double imageWidth) {
+    context.pairTargets.clear();
 
-    return validTargetPairFound;
+    if (!context.pairer.pair(context.targets, context.targetRects, parameters, imageWidth)) {
+      return false;
+    }
+
+    context.pairTargets.add(context.targets.get(context.pairer.left()));
+    context.pairTargets.add(context.targets.get(context.pairer.right()));
+
+    return true;
   }
+
 }
@@ -1,8 +1,6 @@
 import java.util.ArrayList;
 import java.util.List;
 
-import edu.wpi.first.vision.VisionPipeline;
-
 import org.opencv.core.*;
 import org.opencv.imgproc.*;
 
@@ -14,56 +12,333 @@ import org.opencv.imgproc.*;
  *
  * @author GRIP
  */
-public class MyPipeline implements VisionPipeline {
+public class MyPipeline implements TargetPipeline {
 
    //Outputs
 	private Mat resizeImageOutput = new Mat();
 	private Mat rgbThresholdOutput = new Mat();
+	private Mat rgbThresholdSearchOutput = rgbThresholdOutput;
 	private ArrayList<MatOfPoint> findContoursOutput = new ArrayList<MatOfPoint>();
 	private ArrayList<MatOfPoint> filterContoursOutput = new ArrayList<MatOfPoint>();
+	private ArrayList<ContourGeometry> filterContoursGeometry = new ArrayList<ContourGeometry>();
+
+	//The threshold and filter parameters are tunable while running, see
+	//VisionParameters. The processing size is only the starting size when a
+	//ResolutionController is set. These, and the step methods, are
+	//package-private so the benchmarks can run each step on its own.
+	static final double RESIZE_IMAGE_WIDTH = 320.0;
+	static final double RESIZE_IMAGE_HEIGHT = 240.0;
+	private int processingWidth = (int) RESIZE_IMAGE_WIDTH;
+	private int processingHeight = (int) RESIZE_IMAGE_HEIGHT;
+	private ResolutionController resolutionController = null;
+	private ParallelThreshold parallelThreshold = null;
+	private SceneChangeDetector sceneChangeDetector = null;
+	private BlobExtractor blobExtractor = null;
+	private boolean reusedLastFrame = false;
+
+	//The parameters used for the current frame, and the filter compiled from them.
+	//The filter is only recompiled when the parameters change.
+	private final boolean foldTargetShape;
+	private ParameterStore parameterStore = null;
+	private VisionParameters parameters = VisionParameters.DEFAULTS;
+	ContourFilter filterContoursPlan;
+	private RegionOfInterestTracker regionOfInterest = null;
+	private VisionMetrics metrics = null;
+
+	//Reusable working buffers. These are allocated once and reused on every frame
+	//so that a warmed up pipeline does not grow native memory or churn the GC.
+	private final Size resizeImageSize = new Size();
+	private final Scalar rgbThresholdLower = new Scalar(0.0, 0.0, 0.0);
+	private final Scalar rgbThresholdUpper = new Scalar(0.0, 0.0, 0.0);
+	private final Mat findContoursHierarchy = new Mat();
+	private final Point findContoursOffset = new Point();
+
+	//Views of the resized image and the threshold output covering the search
+	//region. They're only made again when the region changes.
+	private final Rect searchRegion = new Rect();
+	private Mat searchRegionImage = null;
+	private Mat searchRegionMask = null;
+	private final ArrayList<ContourGeometry> filterContoursGeometryPool = new ArrayList<ContourGeometry>();
 
 	static {
 		System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
 	}
 
+	public MyPipeline() {
+		this(false);
+	}
+
+	/**
+	 * Creates the pipeline and compiles its contour filter.
+	 * @param foldTargetShape also reject contours whose rotated rectangle doesn't
+	 * have a target strip's angle and aspect ratio (see VisionParameters.isTargetShape()).
+	 */
+	public MyPipeline(boolean foldTargetShape) {
+		this.foldTargetShape = foldTargetShape;
+		filterContoursPlan = compileFilter(parameters);
+	}
+
 	/**
 	 * This is the primary method that runs the entire pipeline and updates the outputs.
 	 */
 	@Override	public void process(Mat source0) {
+		long frameStart = System.nanoTime();
+		long stepStart = frameStart;
+		boolean settingsChanged = false;
+
+		// Pick up any resolution change decided after the last frame
+		if (resolutionController != null) {
+			resolutionController.limitTo(source0.cols(), source0.rows());
+			if ((resolutionController.width() != processingWidth)
+				|| (resolutionController.height() != processingHeight)) {
+				setProcessingSize(resolutionController.width(), resolutionController.height());
+				settingsChanged = true;
+			}
+		}
+
+		// Pick up any parameter changes made since the last frame
+		if (parameterStore != null) {
+			VisionParameters latest = parameterStore.get();
+			if (latest != parameters) {
+				filterContoursPlan = compileFilter(latest);
+				parameters = latest;
+				settingsChanged = true;
+			}
+		}
+
+		// Keep the last frame's outputs if the scene hasn't changed since then
+		reusedLastFrame = (sceneChangeDetector != null) && !sceneChangeDetector.hasChanged(source0, settingsChanged);
+		if (reusedLastFrame) {
+			return;
+		}
+
 		// Step Resize_Image0:
 		Mat resizeImageInput = source0;
-		double resizeImageWidth = 320.0;
-		double resizeImageHeight = 240.0;
+		double resizeImageWidth = processingWidth;
+		double resizeImageHeight = processingHeight;
 		int resizeImageInterpolation = Imgproc.INTER_CUBIC;
 		resizeImage(resizeImageInput, resizeImageWidth, resizeImageHeight, resizeImageInterpolation, resizeImageOutput);
+		stepStart = recordStep(VisionMetrics.RESIZE, stepStart);
+
+		// Only threshold and search the region around the last target found, if
+		// tracking is enabled and we have one. The threshold output stays at the
+		// full image size and the region is thresholded into a view of it, so
+		// nothing is reallocated as the region moves. Contours are translated
+		// back to full image coordinates by findContours.
+		rgbThresholdOutput.create(processingHeight, processingWidth, CvType.CV_8UC1);
+		Rect region = (regionOfInterest != null) ? regionOfInterest.searchRegion() : null;
+		Mat searchImage = resizeImageOutput;
+		Mat searchMask = rgbThresholdOutput;
+		if (region != null) {
+			updateSearchRegion(region);
+			searchImage = searchRegionImage;
+			searchMask = searchRegionMask;
+			findContoursOffset.x = region.x;
+			findContoursOffset.y = region.y;
+		} else {
+			findContoursOffset.x = 0.0;
+			findContoursOffset.y = 0.0;
+		}
+		rgbThresholdSearchOutput = searchMask;
 
 		// Step RGB_Threshold0:
-		Mat rgbThresholdInput = resizeImageOutput;
-		double[] rgbThresholdRed = {192.2073858121868, 254.58148653161132};
-		double[] rgbThresholdGreen = {233.90287769784172, 255.0};
-		double[] rgbThresholdBlue = {213.00042699652138, 254.73603850731277};
-		rgbThreshold(rgbThresholdInput, rgbThresholdRed, rgbThresholdGreen, rgbThresholdBlue, rgbThresholdOutput);
+		Mat rgbThresholdInput = searchImage;
+		double[] rgbThresholdRed = parameters.red();
+		double[] rgbThresholdGreen = parameters.green();
+		double[] rgbThresholdBlue = parameters.blue();
+		if (parallelThreshold != null) {
+			parallelThreshold.threshold(rgbThresholdInput, rgbThresholdRed, rgbThresholdGreen, rgbThresholdBlue,
+				searchMask);
+		} else {
+			rgbThreshold(rgbThresholdInput, rgbThresholdRed, rgbThresholdGreen, rgbThresholdBlue, searchMask);
+		}
+		stepStart = recordStep(VisionMetrics.THRESHOLD, stepStart);
+
+		// The blob engine labels the mask and filters the blobs in one step, in
+		// place of Find_Contours0 and Filter_Contours0
+		if (blobExtractor != null) {
+			filterContoursOutput.clear();
+			blobExtractor.extract(searchMask, findContoursOffset, filterContoursPlan, filterContoursGeometry);
+			recordStep(VisionMetrics.FIND_CONTOURS, stepStart);
+			observeFrameTime(frameStart);
+			return;
+		}
 
 		// Step Find_Contours0:
-		Mat findContoursInput = rgbThresholdOutput;
+		Mat findContoursInput = searchMask;
 		boolean findContoursExternalOnly = false;
-		findContours(findContoursInput, findContoursExternalOnly, findContoursOutput);
+		findContours(findContoursInput, findContoursExternalOnly, findContoursOffset, findContoursOutput);
+		stepStart = recordStep(VisionMetrics.FIND_CONTOURS, stepStart);
 
 		// Step Filter_Contours0:
 		ArrayList<MatOfPoint> filterContoursContours = findContoursOutput;
-		double filterContoursMinArea = 0.0;
-		double filterContoursMinPerimeter = 0.0;
-		double filterContoursMinWidth = 0.0;
-		double filterContoursMaxWidth = 1000.0;
-		double filterContoursMinHeight = 10.0;
-		double filterContoursMaxHeight = 100.0;
-		double[] filterContoursSolidity = {0.0, 100.0};
-		double filterContoursMaxVertices = 1000000.0;
-		double filterContoursMinVertices = 0.0;
-		double filterContoursMinRatio = 0.0;
-		double filterContoursMaxRatio = 10000.0;
-		filterContours(filterContoursContours, filterContoursMinArea, filterContoursMinPerimeter, filterContoursMinWidth, filterContoursMaxWidth, filterContoursMinHeight, filterContoursMaxHeight, filterContoursSolidity, filterContoursMaxVertices, filterContoursMinVertices, filterContoursMinRatio, filterContoursMaxRatio, filterContoursOutput);
+		filterContours(filterContoursContours, filterContoursPlan, filterContoursOutput);
+		recordStep(VisionMetrics.FILTER_CONTOURS, stepStart);
+
+		observeFrameTime(frameStart);
+	}
+
+	private void updateSearchRegion(Rect region) {
+		if ((searchRegionImage != null) && region.equals(searchRegion)) {
+			return;
+		}
+		releaseSearchRegion();
+		searchRegion.x = region.x;
+		searchRegion.y = region.y;
+		searchRegion.width = region.width;
+		searchRegion.height = region.height;
+		searchRegionImage = resizeImageOutput.submat(searchRegion);
+		searchRegionMask = rgbThresholdOutput.submat(searchRegion);
+	}
+
+	private void releaseSearchRegion() {
+		if (searchRegionImage != null) {
+			searchRegionImage.release();
+			searchRegionMask.release();
+			searchRegionImage = null;
+			searchRegionMask = null;
+		}
+	}
+
+	private void observeFrameTime(long frameStart) {
+		if (resolutionController != null) {
+			resolutionController.observe(System.nanoTime() - frameStart);
+		}
+	}
+
+	/**
+	 * Record each step's duration in these metrics.
+	 * @param metrics the metrics, or null to stop recording.
+	 */
+	public void setMetrics(VisionMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Take the threshold and filter parameters from this store, checking it for
+	 * changes at the start of every frame.
+	 * @param parameterStore the store, or null to go back to the defaults.
+	 */
+	public void setParameterStore(ParameterStore parameterStore) {
+		this.parameterStore = parameterStore;
+		if (parameterStore == null) {
+			parameters = VisionParameters.DEFAULTS;
+			filterContoursPlan = compileFilter(parameters);
+		}
+	}
+
+	/**
+	 * The parameters the last frame was processed with. The target analysis
+	 * uses these too, so the whole frame sees the same set.
+	 * @return VisionParameters for the last frame.
+	 */
+	public VisionParameters parameters() {
+		return parameters;
+	}
+
+	/**
+	 * Let a controller pick the processing resolution to fit a frame time budget.
+	 * @param resolutionController the controller, or null to stay at the current size.
+	 */
+	public void setResolutionController(ResolutionController resolutionController) {
+		this.resolutionController = resolutionController;
+	}
+
+	/**
+	 * Run the RGB threshold in stripes on several threads. The mask is the same
+	 * as the serial step's.
+	 * @param parallelThreshold the threshold to use, or null for the serial step.
+	 */
+	public void setParallelThreshold(ParallelThreshold parallelThreshold) {
+		this.parallelThreshold = parallelThreshold;
+	}
+
+	/**
+	 * Skip frames that are the same as the last one processed, keeping the
+	 * outputs from that frame.
+	 * @param sceneChangeDetector the detector, or null to process every frame.
+	 */
+	public void setSceneChangeDetector(SceneChangeDetector sceneChangeDetector) {
+		this.sceneChangeDetector = sceneChangeDetector;
+	}
+
+	/**
+	 * Find the target blobs by connected component labelling instead of with
+	 * findContours and filterContours. Only filterContoursGeometry() is filled
+	 * in, the contour outputs are left empty.
+	 * @param blobExtractor the extractor, or null to use the contour steps.
+	 */
+	public void setBlobExtractor(BlobExtractor blobExtractor) {
+		this.blobExtractor = blobExtractor;
+	}
+
+	/**
+	 * Whether the last call to process() skipped the frame and kept the outputs
+	 * of the frame before it.
+	 * @return true if the outputs are from an earlier frame.
+	 */
+	public boolean reusedLastFrame() {
+		return reusedLastFrame;
+	}
+
+	/**
+	 * Whether the filter was built with the target shape check folded in.
+	 * @return true if every contour that passed the filter has a target strip's shape.
+	 */
+	public boolean foldsTargetShape() {
+		return foldTargetShape;
+	}
+
+	/**
+	 * The size the last frame was processed at. All of the outputs, contours and
+	 * geometry are in this image's pixels.
+	 * @return width of the processed image.
+	 */
+	public int processingWidth() {
+		return processingWidth;
+	}
 
+	/**
+	 * @return height of the processed image.
+	 */
+	public int processingHeight() {
+		return processingHeight;
+	}
+
+	private void setProcessingSize(int width, int height) {
+		processingWidth = width;
+		processingHeight = height;
+		filterContoursPlan = compileFilter(parameters);
+		releaseSearchRegion();
+		if (regionOfInterest != null) {
+			regionOfInterest.setImageSize(width, height);
+		}
+	}
+
+	private ContourFilter compileFilter(VisionParameters parameters) {
+		return new ContourFilter(parameters, processingWidth, processingHeight, foldTargetShape);
+	}
+
+	private long recordStep(int step, long stepStart) {
+		return (metrics != null) ? metrics.record(step, stepStart) : stepStart;
+	}
+
+	/**
+	 * Only search the area around the last target found instead of the whole
+	 * image. The caller reports what it found each frame through the tracker.
+	 * @param minMarginPixels smallest margin added around the last target.
+	 * @param maxMisses frames without a target before searching the full image again.
+	 */
+	public void enableRegionOfInterest(int minMarginPixels, int maxMisses) {
+		regionOfInterest = new RegionOfInterestTracker(processingWidth, processingHeight, minMarginPixels, maxMisses);
+	}
+
+	/**
+	 * The region of interest tracker.
+	 * @return RegionOfInterestTracker, or null if region of interest tracking is disabled.
+	 */
+	public RegionOfInterestTracker regionOfInterest() {
+		return regionOfInterest;
 	}
 
 	/**
@@ -75,11 +350,12 @@ public class MyPipeline implements VisionPipeline {
 	}
 
 	/**
-	 * This method is a generated getter for the output of a RGB_Threshold.
+	 * This method is a generated getter for the output of a RGB_Threshold. When a
+	 * region of interest is being tracked this only covers the search region.
 	 * @return Mat output from RGB_Threshold.
 	 */
 	public Mat rgbThresholdOutput() {
-		return rgbThresholdOutput;
+		return rgbThresholdSearchOutput;
 	}
 
 	/**
@@ -98,6 +374,17 @@ public class MyPipeline implements VisionPipeline {
 		return filterContoursOutput;
 	}
 
+	/**
+	 * Geometry of each contour in filterContoursOutput(), in the same order, or
+	 * of each blob when the blob engine is used. The measurements are cached, so
+	 * consumers can use them without copying the contour points out of native
+	 * memory again.
+	 * @return ArrayList<ContourGeometry> measurements from Filter_Contours.
+	 */
+	public ArrayList<ContourGeometry> filterContoursGeometry() {
+		return filterContoursGeometry;
+	}
+
 
 	/**
 	 * Scales and image to an exact size.
@@ -107,9 +394,11 @@ public class MyPipeline implements VisionPipeline {
 	 * @param interpolation The type of interpolation.
 	 * @param output The image in which to store the output.
 	 */
-	private void resizeImage(Mat input, double width, double height,
+	void resizeImage(Mat input, double width, double height,
 		int interpolation, Mat output) {
-		Imgproc.resize(input, output, new Size(width, height), 0.0, 0.0, interpolation);
+		resizeImageSize.width = width;
+		resizeImageSize.height = height;
+		Imgproc.resize(input, output, resizeImageSize, 0.0, 0.0, interpolation);
 	}
 
 	/**
@@ -120,11 +409,18 @@ public class MyPipeline implements VisionPipeline {
 	 * @param blue The min and max blue.
 	 * @param output The image in which to store the output.
 	 */
-	private void rgbThreshold(Mat input, double[] red, double[] green, double[] blue,
+	void rgbThreshold(Mat input, double[] red, double[] green, double[] blue,
 		Mat out) {
-		Imgproc.cvtColor(input, out, Imgproc.COLOR_BGR2RGB);
-		Core.inRange(out, new Scalar(red[0], green[0], blue[0]),
-			new Scalar(red[1], green[1], blue[1]), out);
+		// The bounds are put in BGR order instead of converting the frame to RGB.
+		// The mask is the same, and it's written straight into out, which can be
+		// a view of a bigger mask.
+		rgbThresholdLower.val[0] = blue[0];
+		rgbThresholdLower.val[1] = green[0];
+		rgbThresholdLower.val[2] = red[0];
+		rgbThresholdUpper.val[0] = blue[1];
+		rgbThresholdUpper.val[1] = green[1];
+		rgbThresholdUpper.val[2] = red[1];
+		Core.inRange(input, rgbThresholdLower, rgbThresholdUpper, out);
 	}
 
 	/**
@@ -132,11 +428,17 @@ public class MyPipeline implements VisionPipeline {
 	 * @param input The image on which to perform the Distance Transform.
 	 * @param type The Transform.
 	 * @param maskSize the size of the mask.
+	 * @param offset Offset added to every contour point (the search region's origin).
 	 * @param output The image in which to store the output.
 	 */
-	private void findContours(Mat input, boolean externalOnly,
+	void findContours(Mat input, boolean externalOnly, Point offset,
 		List<MatOfPoint> contours) {
-		Mat hierarchy = new Mat();
+		// The previous frame's contours are no longer referenced once a new frame
+		// is being processed, so free their native memory now rather than waiting
+		// for the finalizer.
+		for (int i = 0; i < contours.size(); i++) {
+			contours.get(i).release();
+		}
 		contours.clear();
 		int mode;
 		if (externalOnly) {
@@ -146,54 +448,33 @@ public class MyPipeline implements VisionPipeline {
 			mode = Imgproc.RETR_LIST;
 		}
 		int method = Imgproc.CHAIN_APPROX_SIMPLE;
-		Imgproc.findContours(input, contours, hierarchy, mode, method);
+		Imgproc.findContours(input, contours, findContoursHierarchy, mode, method, offset);
 	}
 
 
 	/**
 	 * Filters out contours that do not meet certain criteria.
 	 * @param inputContours is the input list of contours
+	 * @param plan is the compiled filter criteria
 	 * @param output is the the output list of contours
-	 * @param minArea is the minimum area of a contour that will be kept
-	 * @param minPerimeter is the minimum perimeter of a contour that will be kept
-	 * @param minWidth minimum width of a contour
-	 * @param maxWidth maximum width
-	 * @param minHeight minimum height
-	 * @param maxHeight maximimum height
-	 * @param Solidity the minimum and maximum solidity of a contour
-	 * @param minVertexCount minimum vertex Count of the contours
-	 * @param maxVertexCount maximum vertex Count
-	 * @param minRatio minimum ratio of width to height
-	 * @param maxRatio maximum ratio of width to height
-	 */
-	private void filterContours(List<MatOfPoint> inputContours, double minArea,
-		double minPerimeter, double minWidth, double maxWidth, double minHeight, double
-		maxHeight, double[] solidity, double maxVertexCount, double minVertexCount, double
-		minRatio, double maxRatio, List<MatOfPoint> output) {
-		final MatOfInt hull = new MatOfInt();
+	 */
+	void filterContours(List<MatOfPoint> inputContours, ContourFilter plan,
+		List<MatOfPoint> output) {
 		output.clear();
+		filterContoursGeometry.clear();
 		//operation
 		for (int i = 0; i < inputContours.size(); i++) {
 			final MatOfPoint contour = inputContours.get(i);
-			final Rect bb = Imgproc.boundingRect(contour);
-			if (bb.width < minWidth || bb.width > maxWidth) continue;
-			if (bb.height < minHeight || bb.height > maxHeight) continue;
-			final double area = Imgproc.contourArea(contour);
-			if (area < minArea) continue;
-			if (Imgproc.arcLength(new MatOfPoint2f(contour.toArray()), true) < minPerimeter) continue;
-			Imgproc.convexHull(contour, hull);
-			MatOfPoint mopHull = new MatOfPoint();
-			mopHull.create((int) hull.size().height, 1, CvType.CV_32SC2);
-			for (int j = 0; j < hull.size().height; j++) {
-				int index = (int)hull.get(j, 0)[0];
-				double[] point = new double[] { contour.get(index, 0)[0], contour.get(index, 0)[1]};
-				mopHull.put(j, 0, point);
+			// Measure the contour in Java from a single bulk copy of its points.
+			// The geometry slot is only claimed if the contour is kept, otherwise
+			// it is reused for the next contour.
+			if (filterContoursGeometryPool.size() == filterContoursGeometry.size()) {
+				filterContoursGeometryPool.add(new ContourGeometry());
 			}
-			final double solid = 100 * area / Imgproc.contourArea(mopHull);
-			if (solid < solidity[0] || solid > solidity[1]) continue;
-			if (contour.rows() < minVertexCount || contour.rows() > maxVertexCount)	continue;
-			final double ratio = bb.width / (double)bb.height;
-			if (ratio < minRatio || ratio > maxRatio) continue;
+			final ContourGeometry geometry = filterContoursGeometryPool.get(filterContoursGeometry.size());
+			geometry.load(contour);
+			if (!plan.accept(geometry)) continue;
+			filterContoursGeometry.add(geometry);
 			output.add(contour);
 		}
 	}
@@ -0,0 +1,130 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.CvSource;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+// **************************************************************************
+// *
+// * OverlayCompositor Class
+// *
+// * Decides when the overlay stream is worth drawing and encoding, and keeps
+// * pre-rendered copies of the fixed status banners.
+// *
+// * The overlay is only rendered when somebody is watching the stream (the
+// * CvSource is enabled while an MJPEG client is connected) or the debug
+// * flag is set in NetworkTables, and even then only at the overlay's own
+// * frame rate, which can be lower than the vision loop's.
+// *
+// **************************************************************************
+public final class OverlayCompositor {
+
+  public static final int BANNER_SEARCHING = 0;
+  public static final int BANNER_ACQUIRING = 1;
+
+  private static final String[] BANNER_TEXT = { "Searching...", "Acquiring Target" };
+
+  private final CvSource outputStream;
+  private final NetworkTableEntry debugEntry;
+  private final long minFrameIntervalNanos;
+  private final Rect bannerRect = new Rect();
+  private final Mat[] banners = new Mat[BANNER_TEXT.length];
+
+  private long lastRenderNanos = 0;
+
+  // **************************************************************************
+  // *
+  // * bannerHeight is the height of the status bar across the top of the
+  // * overlay. It's as wide as the frame it's drawn on.
+  // *
+  // **************************************************************************
+  public OverlayCompositor(CvSource outputStream, NetworkTableEntry debugEntry, double frameRate, int bannerHeight) {
+    this.outputStream = outputStream;
+    this.debugEntry = debugEntry;
+    this.minFrameIntervalNanos = (frameRate > 0.0) ? (long) (1.0e9 / frameRate) : 0;
+    this.bannerRect.height = bannerHeight;
+
+    debugEntry.setDefaultBoolean(false);
+  }
+
+  // **************************************************************************
+  // *
+  // * Should the current frame be drawn and streamed? Call this once per
+  // * frame, it counts a true answer as a rendered frame.
+  // *
+  // **************************************************************************
+  public boolean shouldRender() {
+    if (!outputStream.isEnabled() && !debugEntry.getBoolean(false)) {
+      return false;
+    }
+
+    long now = System.nanoTime();
+
+    if ((lastRenderNanos != 0) && (now - lastRenderNanos < minFrameIntervalNanos)) {
+      return false;
+    }
+
+    lastRenderNanos = now;
+    return true;
+  }
+
+  // **************************************************************************
+  // *
+  // * Copy a pre-rendered status banner onto the top of the frame
+  // *
+  // **************************************************************************
+  public void drawBanner(Mat frame, int banner) {
+    if ((frame.cols() < 2) || (frame.rows() < bannerRect.height)) {
+      return;
+    }
+
+    // The banner stops a pixel short of the right edge
+    if (bannerRect.width != frame.cols() - 1) {
+      bannerRect.width = frame.cols() - 1;
+      for (int i = 0; i < banners.length; i++) {
+        releaseBanner(i);
+      }
+    }
+
+    Mat bannerImage = banners[banner];
+
+    // The banners are rendered the first time they're needed so they match
+    // the camera's frame type and width
+    if ((bannerImage == null) || (bannerImage.type() != frame.type())) {
+      releaseBanner(banner);
+      bannerImage = renderBanner(BANNER_TEXT[banner], frame.type());
+      banners[banner] = bannerImage;
+    }
+
+    Mat target = frame.submat(bannerRect);
+    bannerImage.copyTo(target);
+    target.release();
+  }
+
+  // Free a cached banner's native memory now rather than at finalization
+  private void releaseBanner(int banner) {
+    if (banners[banner] != null) {
+      banners[banner].release();
+      banners[banner] = null;
+    }
+  }
+
+  private Mat renderBanner(String text, int type) {
+    Mat banner = new Mat(bannerRect.height, bannerRect.width, type, new Scalar(0.0, 0.0, 0.0));
+    Imgproc.putText(banner, text, new Point(2.0, 10.0), Core.FONT_HERSHEY_SIMPLEX, 0.4,
+        new Scalar(0.0, 0.0, 255.0), 1);
+    return banner;
+  }
+}
@@ -0,0 +1,92 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+// **************************************************************************
+// *
+// * PairsPacket Class
+// *
+// * Publishes every target pair found in a frame as one NetworkTables double
+// * array, so the robot can choose between targets itself when more than one
+// * is in view. The array layout is:
+// *
+// *   [0] frame id (the same as in the ResultPacket)
+// *   [1] capture time in microseconds (NetworkTables/cscore time base)
+// *   [2] number of pairs, n
+// *
+// * followed by PAIR_SIZE values for each pair, left to right:
+// *
+// *   [0] distance to target in inches
+// *   [1] horizontal offset to target in inches (NaN when the distance is
+// *       outside the calibration table)
+// *   [2] confidence from 0 to 1 (how well the strips' size and spacing
+// *       match the real target)
+// *
+// * At most MAX_PAIRS pairs are published, the rest are dropped. The packet
+// * isn't flushed on its own, it goes out with the ResultPacket's flush.
+// *
+// **************************************************************************
+public final class PairsPacket {
+
+  public static final int FRAME_ID = 0;
+  public static final int CAPTURE_TIME = 1;
+  public static final int PAIR_COUNT = 2;
+  public static final int HEADER_SIZE = 3;
+
+  public static final int DISTANCE = 0;
+  public static final int HORIZONTAL_OFFSET = 1;
+  public static final int CONFIDENCE = 2;
+  public static final int PAIR_SIZE = 3;
+
+  public static final int MAX_PAIRS = 8;
+
+  private final NetworkTableEntry entry;
+
+  // One array per pair count, NetworkTables needs an array of the right length
+  private final double[][] packets = new double[MAX_PAIRS + 1][];
+
+  private double[] packet;
+
+  public PairsPacket(NetworkTableEntry entry) {
+    this.entry = entry;
+
+    for (int i = 0; i <= MAX_PAIRS; i++) {
+      packets[i] = new double[HEADER_SIZE + (i * PAIR_SIZE)];
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Start a frame's packet, then add() each pair and publish()
+  // *
+  // **************************************************************************
+  public void begin(TargetingResult result, int pairCount) {
+    packet = packets[Math.min(pairCount, MAX_PAIRS)];
+    packet[FRAME_ID] = result.frameId;
+    packet[CAPTURE_TIME] = result.frameTime;
+    packet[PAIR_COUNT] = 0;
+  }
+
+  public void add(double distanceInInches, double horizontalOffsetInInches, double confidence) {
+    int pair = (int) packet[PAIR_COUNT];
+    if (HEADER_SIZE + (pair * PAIR_SIZE) >= packet.length) {
+      return;
+    }
+
+    int offset = HEADER_SIZE + (pair * PAIR_SIZE);
+    packet[offset + DISTANCE] = distanceInInches;
+    packet[offset + HORIZONTAL_OFFSET] = horizontalOffsetInInches;
+    packet[offset + CONFIDENCE] = confidence;
+    packet[PAIR_COUNT] = pair + 1;
+  }
+
+  public void publish() {
+    entry.setDoubleArray(packet);
+  }
+}
@@ -0,0 +1,160 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+
+// **************************************************************************
+// *
+// * ParallelThreshold Class
+// *
+// * The pipeline's RGB threshold split into horizontal stripes that are
+// * thresholded at the same time on the Pi's cores. Each stripe writes
+// * straight into its rows of the one output mask, so there's nothing to
+// * merge afterwards.
+// *
+// * The threshold is a test of each pixel on its own, so the mask is exactly
+// * the same as the serial step's. Like the serial step, the bounds are put
+// * in BGR order rather than converting the frame to RGB first.
+// *
+// * The calling thread does the first stripe itself and a fixed set of
+// * worker threads do the rest, woken once per frame.
+// *
+// **************************************************************************
+public final class ParallelThreshold {
+
+  private final int stripes;
+  private final Scalar lower = new Scalar(0, 0, 0);
+  private final Scalar upper = new Scalar(0, 0, 0);
+
+  // The current frame's work, handed to the workers under this object's lock
+  private Mat input;
+  private Mat output;
+  private int generation = 0;
+  private int remaining = 0;
+  private RuntimeException failure = null;
+
+  public ParallelThreshold(String name, int stripes) {
+    this.stripes = Math.max(stripes, 1);
+
+    for (int stripe = 1; stripe < this.stripes; stripe++) {
+      final int workerStripe = stripe;
+      Thread worker = new Thread(() -> runWorker(workerStripe), name + " threshold " + stripe);
+      worker.setDaemon(true);
+      worker.start();
+    }
+  }
+
+  public int stripes() {
+    return stripes;
+  }
+
+  // **************************************************************************
+  // *
+  // * Threshold the BGR input into a mask. red, green and blue are [min, max]
+  // * like the pipeline's rgbThreshold step takes.
+  // *
+  // **************************************************************************
+  public void threshold(Mat input, double[] red, double[] green, double[] blue, Mat output) {
+    output.create(input.rows(), input.cols(), CvType.CV_8UC1);
+
+    lower.val[0] = blue[0];
+    lower.val[1] = green[0];
+    lower.val[2] = red[0];
+    upper.val[0] = blue[1];
+    upper.val[1] = green[1];
+    upper.val[2] = red[1];
+
+    synchronized (this) {
+      this.input = input;
+      this.output = output;
+      this.failure = null;
+      remaining = stripes - 1;
+      generation++;
+      notifyAll();
+    }
+
+    thresholdStripe(0);
+
+    // The workers are still reading the input and writing the output, so an
+    // interrupt has to wait until they're done
+    boolean interrupted = false;
+    RuntimeException stripeFailure;
+    synchronized (this) {
+      while (remaining > 0) {
+        try {
+          wait();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+      this.input = null;
+      this.output = null;
+      stripeFailure = failure;
+    }
+
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+    if (stripeFailure != null) {
+      throw stripeFailure;
+    }
+  }
+
+  private void runWorker(int stripe) {
+    int seenGeneration = 0;
+
+    for (;;) {
+      synchronized (this) {
+        while (generation == seenGeneration) {
+          try {
+            wait();
+          } catch (InterruptedException ex) {
+            return;
+          }
+        }
+        seenGeneration = generation;
+      }
+
+      RuntimeException stripeFailure = null;
+      try {
+        thresholdStripe(stripe);
+      } catch (RuntimeException ex) {
+        stripeFailure = ex;
+      }
+
+      synchronized (this) {
+        if (stripeFailure != null) {
+          failure = stripeFailure;
+        }
+        if (--remaining == 0) {
+          notifyAll();
+        }
+      }
+    }
+  }
+
+  // The rows of a stripe are split as evenly as they go, a frame with fewer
+  // rows than stripes just leaves some stripes empty
+  private void thresholdStripe(int stripe) {
+    int rows = input.rows();
+    int startRow = (int) ((long) rows * stripe / stripes);
+    int endRow = (int) ((long) rows * (stripe + 1) / stripes);
+    if (startRow == endRow) {
+      return;
+    }
+
+    Mat inputStripe = input.rowRange(startRow, endRow);
+    Mat outputStripe = output.rowRange(startRow, endRow);
+    Core.inRange(inputStripe, lower, upper, outputStripe);
+    inputStripe.release();
+    outputStripe.release();
+  }
+}
@@ -0,0 +1,117 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import edu.wpi.first.networktables.EntryListenerFlags;
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+// **************************************************************************
+// *
+// * ParameterStore Class
+// *
+// * Holds the current VisionParameters for a vision worker so they can be
+// * tuned while it runs. Values come from the "parameters" section of the
+// * camera's pipeline config at startup, and from the worker's
+// * "<table>/parameters" NetworkTables subtable at any time after that (e.g.,
+// * from Shuffleboard at an event).
+// *
+// * Every change swaps in a new VisionParameters. The pipeline reads the
+// * current one once at the start of each frame, so a change takes effect on
+// * the next frame and a frame never sees half of one.
+// *
+// **************************************************************************
+public final class ParameterStore {
+
+  private final AtomicReference<VisionParameters> current;
+  private final NetworkTableEntry[] entries = new NetworkTableEntry[VisionParameters.COUNT];
+  private String name = "";
+
+  public ParameterStore(VisionParameters initial) {
+    current = new AtomicReference<>(initial);
+  }
+
+  public VisionParameters get() {
+    return current.get();
+  }
+
+  // **************************************************************************
+  // *
+  // * Change one parameter. Safe to call from any thread.
+  // *
+  // **************************************************************************
+  public void set(int id, double value) {
+    if (Double.isNaN(value)) {
+      System.err.println(name + "ignoring NaN for parameter '" + VisionParameters.name(id) + "'");
+      return;
+    }
+
+    VisionParameters before;
+    VisionParameters after;
+    do {
+      before = current.get();
+      after = before.with(id, value);
+    } while ((before != after) && !current.compareAndSet(before, after));
+
+    if (before == after) {
+      return;
+    }
+
+    System.out.println(name + "parameter '" + VisionParameters.name(id) + "' = " + value);
+
+    if (entries[id] != null) {
+      entries[id].setDouble(value);
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Apply a config section of parameter name / value pairs
+  // *
+  // **************************************************************************
+  public void apply(JsonObject config) {
+    for (Map.Entry<String, JsonElement> setting : config.entrySet()) {
+      int id = VisionParameters.id(setting.getKey());
+
+      if (id < 0) {
+        System.err.println(name + "unknown parameter '" + setting.getKey() + "'");
+        continue;
+      }
+
+      set(id, setting.getValue().getAsDouble());
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Publish the parameters to a table and pick up any changes made to it
+  // * remotely from then on
+  // *
+  // **************************************************************************
+  public void attach(NetworkTable table) {
+    name = table.getPath() + ": ";
+
+    VisionParameters parameters = current.get();
+    for (int id = 0; id < VisionParameters.COUNT; id++) {
+      entries[id] = table.getEntry(VisionParameters.name(id));
+      entries[id].setDouble(parameters.get(id));
+    }
+
+    table.addEntryListener((changedTable, key, entry, value, flags) -> {
+      int id = VisionParameters.id(key);
+      if ((id >= 0) && value.isDouble()) {
+        set(id, value.getDouble());
+      }
+    }, EntryListenerFlags.kNew | EntryListenerFlags.kUpdate);
+  }
+}
@@ -0,0 +1,152 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+// **************************************************************************
+// *
+// * PipelineStage Class
+// *
+// * One step of a StageGraph. A stage declares its typed inputs and outputs
+// * when it's created, allocating each output's value up front. The graph
+// * connects the inputs to other stages' outputs (or to the source frame)
+// * and then calls run() once per frame.
+// *
+// * The stage's work (process()) is skipped when none of its inputs have
+// * changed since it last ran, and neither have the parameters if it uses
+// * them, so its outputs from last time still stand. Each stage times its
+// * own work.
+// *
+// **************************************************************************
+public abstract class PipelineStage {
+
+  public final String name;
+
+  private final List<Input<?>> inputs = new ArrayList<>();
+  private final List<Port<?>> outputs = new ArrayList<>();
+  private final boolean usesParameters;
+
+  private long[] seenVersions = new long[0];
+  private VisionParameters seenParameters = null;
+  private boolean hasRun = false;
+
+  private final LatencyHistogram histogram = new LatencyHistogram();
+  private long lastNanos = 0;
+  private long skippedRuns = 0;
+
+  // **************************************************************************
+  // *
+  // * An input, connected to another stage's output by the graph
+  // *
+  // **************************************************************************
+  public static final class Input<T> {
+    public final String name;
+    public final Class<T> type;
+    private Port<T> source;
+
+    private Input(String name, Class<T> type) {
+      this.name = name;
+      this.type = type;
+    }
+
+    public void connect(Port<?> port) {
+      source = port.as(type);
+    }
+
+    public boolean isConnected() {
+      return source != null;
+    }
+
+    public T get() {
+      return source.get();
+    }
+
+    long version() {
+      return source.version();
+    }
+  }
+
+  protected PipelineStage(String name, boolean usesParameters) {
+    this.name = name;
+    this.usesParameters = usesParameters;
+  }
+
+  protected final <T> Input<T> input(String inputName, Class<T> type) {
+    Input<T> input = new Input<>(inputName, type);
+    inputs.add(input);
+    seenVersions = new long[inputs.size()];
+    return input;
+  }
+
+  protected final <T> Port<T> output(String outputName, Class<T> type, T value) {
+    Port<T> port = new Port<>(name + "." + outputName, type, value);
+    outputs.add(port);
+    return port;
+  }
+
+  public List<Input<?>> inputs() {
+    return inputs;
+  }
+
+  // The first output is the one a bare stage name refers to in the config
+  public List<Port<?>> outputs() {
+    return outputs;
+  }
+
+  // **************************************************************************
+  // *
+  // * Run the stage for a frame if anything it depends on has changed. Output
+  // * ports are marked changed when it runs.
+  // *
+  // **************************************************************************
+  public final void run(VisionParameters parameters) {
+    boolean changed = !hasRun || (usesParameters && (parameters != seenParameters));
+
+    for (int i = 0; i < inputs.size(); i++) {
+      long version = inputs.get(i).version();
+      if (version != seenVersions[i]) {
+        seenVersions[i] = version;
+        changed = true;
+      }
+    }
+
+    if (!changed) {
+      skippedRuns++;
+      return;
+    }
+
+    long start = System.nanoTime();
+    process(parameters);
+    lastNanos = System.nanoTime() - start;
+    histogram.recordNanos(lastNanos);
+
+    seenParameters = parameters;
+    hasRun = true;
+
+    for (int i = 0; i < outputs.size(); i++) {
+      outputs.get(i).changed();
+    }
+  }
+
+  protected abstract void process(VisionParameters parameters);
+
+  // How long the stage's work took the last time it ran
+  public long lastNanos() {
+    return lastNanos;
+  }
+
+  // Times the stage was skipped because nothing had changed
+  public long skippedRuns() {
+    return skippedRuns;
+  }
+
+  public LatencyHistogram histogram() {
+    return histogram;
+  }
+}
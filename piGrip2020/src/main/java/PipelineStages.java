@@ -0,0 +1,305 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+
+import com.google.gson.JsonObject;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+// **************************************************************************
+// *
+// * PipelineStages Class
+// *
+// * The stages a StageGraph can be built from, and the factory that makes
+// * them from their config. Each stage's config has a "type", a "name" and
+// * whatever settings the type takes:
+// *
+// *   resize         image -> image  "width", "height", "interpolation"
+// *                                  ("cubic", "linear", "area" or "nearest")
+// *   threshold      image -> mask   "stripes" (see ParallelThreshold)
+// *   findContours   mask -> contours "externalOnly"
+// *   filterContours contours -> blobs "targetShape" (fold the target shape
+// *                                  check into the filter)
+// *   blobs          mask -> blobs   "targetShape" (see BlobExtractor)
+// *
+// * The threshold and filter limits come from the VisionParameters, like
+// * they do for MyPipeline.
+// *
+// **************************************************************************
+public final class PipelineStages {
+
+  private PipelineStages() {
+  }
+
+  // Contours found in a mask, and the size of the mask
+  public static final class Contours {
+    public final ArrayList<MatOfPoint> list = new ArrayList<>();
+    public int imageWidth;
+    public int imageHeight;
+  }
+
+  // Blobs that passed the filter, and the size of the image they're in
+  public static final class Blobs {
+    public final ArrayList<ContourGeometry> list = new ArrayList<>();
+    public int imageWidth;
+    public int imageHeight;
+  }
+
+  // **************************************************************************
+  // *
+  // * Make a stage from its config
+  // *
+  // **************************************************************************
+  public static PipelineStage create(JsonObject config) {
+    if (!config.has("type") || !config.has("name")) {
+      throw new IllegalArgumentException("stage must have a type and a name: " + config);
+    }
+
+    String type = config.get("type").getAsString();
+    String name = config.get("name").getAsString();
+
+    switch (type) {
+    case "resize":
+      return new Resize(name, getInt(config, "width", (int) MyPipeline.RESIZE_IMAGE_WIDTH),
+          getInt(config, "height", (int) MyPipeline.RESIZE_IMAGE_HEIGHT),
+          interpolation(config.has("interpolation") ? config.get("interpolation").getAsString() : "cubic"));
+    case "threshold":
+      return new Threshold(name, getInt(config, "stripes", 1));
+    case "findContours":
+      return new FindContours(name, getBoolean(config, "externalOnly", false));
+    case "filterContours":
+      return new FilterContours(name, getBoolean(config, "targetShape", Main.FOLD_TARGET_SHAPE_INTO_FILTER));
+    case "blobs":
+      return new ExtractBlobs(name, getBoolean(config, "targetShape", Main.FOLD_TARGET_SHAPE_INTO_FILTER));
+    default:
+      throw new IllegalArgumentException("unknown stage type '" + type + "'");
+    }
+  }
+
+  private static int getInt(JsonObject config, String key, int defaultValue) {
+    return config.has(key) ? config.get(key).getAsInt() : defaultValue;
+  }
+
+  private static boolean getBoolean(JsonObject config, String key, boolean defaultValue) {
+    return config.has(key) ? config.get(key).getAsBoolean() : defaultValue;
+  }
+
+  private static int interpolation(String name) {
+    switch (name) {
+    case "cubic":
+      return Imgproc.INTER_CUBIC;
+    case "linear":
+      return Imgproc.INTER_LINEAR;
+    case "area":
+      return Imgproc.INTER_AREA;
+    case "nearest":
+      return Imgproc.INTER_NEAREST;
+    default:
+      throw new IllegalArgumentException("unknown interpolation '" + name + "'");
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Resize the image to a fixed size
+  // *
+  // **************************************************************************
+  public static final class Resize extends PipelineStage {
+    private final Input<Mat> input = input("image", Mat.class);
+    private final Port<Mat> output = output("image", Mat.class, new Mat());
+    private final Size size;
+    private final int interpolation;
+
+    public Resize(String name, int width, int height, int interpolation) {
+      super(name, false);
+      this.size = new Size(width, height);
+      this.interpolation = interpolation;
+    }
+
+    @Override
+    protected void process(VisionParameters parameters) {
+      Imgproc.resize(input.get(), output.get(), size, 0.0, 0.0, interpolation);
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Threshold the image's RGB values into a mask, in stripes on several
+  // * threads if there's more than one
+  // *
+  // **************************************************************************
+  public static final class Threshold extends PipelineStage {
+    private final Input<Mat> input = input("image", Mat.class);
+    private final Port<Mat> output = output("mask", Mat.class, new Mat());
+    private final ParallelThreshold parallelThreshold;
+    private final Scalar lower = new Scalar(0.0, 0.0, 0.0);
+    private final Scalar upper = new Scalar(0.0, 0.0, 0.0);
+
+    public Threshold(String name, int stripes) {
+      super(name, true);
+      parallelThreshold = (stripes > 1) ? new ParallelThreshold(name, stripes) : null;
+    }
+
+    @Override
+    protected void process(VisionParameters parameters) {
+      if (parallelThreshold != null) {
+        parallelThreshold.threshold(input.get(), parameters.red(), parameters.green(), parameters.blue(),
+            output.get());
+      } else {
+        // Like MyPipeline's RGB threshold, with the bounds in BGR order
+        setBounds(lower, parameters, 0);
+        setBounds(upper, parameters, 1);
+        Core.inRange(input.get(), lower, upper, output.get());
+      }
+    }
+  }
+
+  private static void setBounds(Scalar bounds, VisionParameters parameters, int index) {
+    bounds.val[0] = parameters.blue()[index];
+    bounds.val[1] = parameters.green()[index];
+    bounds.val[2] = parameters.red()[index];
+  }
+
+  // **************************************************************************
+  // *
+  // * Find the contours in a mask
+  // *
+  // **************************************************************************
+  public static final class FindContours extends PipelineStage {
+    private final Input<Mat> input = input("mask", Mat.class);
+    private final Port<Contours> output = output("contours", Contours.class, new Contours());
+    private final boolean externalOnly;
+    private final Mat hierarchy = new Mat();
+
+    public FindContours(String name, boolean externalOnly) {
+      super(name, false);
+      this.externalOnly = externalOnly;
+    }
+
+    @Override
+    protected void process(VisionParameters parameters) {
+      Mat mask = input.get();
+      Contours contours = output.get();
+
+      for (int i = 0; i < contours.list.size(); i++) {
+        contours.list.get(i).release();
+      }
+      contours.list.clear();
+
+      int mode = externalOnly ? Imgproc.RETR_EXTERNAL : Imgproc.RETR_LIST;
+      Imgproc.findContours(mask, contours.list, hierarchy, mode, Imgproc.CHAIN_APPROX_SIMPLE);
+      contours.imageWidth = mask.cols();
+      contours.imageHeight = mask.rows();
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Measure the contours and keep the ones that pass the filter. The
+  // * filter is recompiled when the parameters or the image size change.
+  // *
+  // **************************************************************************
+  public static final class FilterContours extends PipelineStage {
+    private final Input<Contours> input = input("contours", Contours.class);
+    private final Port<Blobs> output = output("blobs", Blobs.class, new Blobs());
+    private final boolean targetShape;
+    private final ArrayList<ContourGeometry> pool = new ArrayList<>();
+    private final FilterCache filter = new FilterCache();
+
+    public FilterContours(String name, boolean targetShape) {
+      super(name, true);
+      this.targetShape = targetShape;
+    }
+
+    public boolean foldsTargetShape() {
+      return targetShape;
+    }
+
+    @Override
+    protected void process(VisionParameters parameters) {
+      Contours contours = input.get();
+      Blobs blobs = output.get();
+      ContourFilter plan = filter.get(parameters, contours.imageWidth, contours.imageHeight, targetShape);
+
+      blobs.list.clear();
+      blobs.imageWidth = contours.imageWidth;
+      blobs.imageHeight = contours.imageHeight;
+
+      for (int i = 0; i < contours.list.size(); i++) {
+        if (pool.size() == blobs.list.size()) {
+          pool.add(new ContourGeometry());
+        }
+        ContourGeometry geometry = pool.get(blobs.list.size());
+        geometry.load(contours.list.get(i));
+        if (plan.accept(geometry)) {
+          blobs.list.add(geometry);
+        }
+      }
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Label the mask's blobs and keep the ones that pass the filter
+  // *
+  // **************************************************************************
+  public static final class ExtractBlobs extends PipelineStage {
+    private final Input<Mat> input = input("mask", Mat.class);
+    private final Port<Blobs> output = output("blobs", Blobs.class, new Blobs());
+    private final boolean targetShape;
+    private final BlobExtractor extractor = new BlobExtractor();
+    private final FilterCache filter = new FilterCache();
+    private final Point offset = new Point();
+
+    public ExtractBlobs(String name, boolean targetShape) {
+      super(name, true);
+      this.targetShape = targetShape;
+    }
+
+    public boolean foldsTargetShape() {
+      return targetShape;
+    }
+
+    @Override
+    protected void process(VisionParameters parameters) {
+      Mat mask = input.get();
+      Blobs blobs = output.get();
+      ContourFilter plan = filter.get(parameters, mask.cols(), mask.rows(), targetShape);
+
+      extractor.extract(mask, offset, plan, blobs.list);
+      blobs.imageWidth = mask.cols();
+      blobs.imageHeight = mask.rows();
+    }
+  }
+
+  // The compiled filter for the last parameters and image size
+  private static final class FilterCache {
+    private ContourFilter filter = null;
+    private VisionParameters parameters = null;
+    private int imageWidth;
+    private int imageHeight;
+
+    ContourFilter get(VisionParameters newParameters, int newWidth, int newHeight, boolean targetShape) {
+      if ((filter == null) || (newParameters != parameters) || (newWidth != imageWidth)
+          || (newHeight != imageHeight)) {
+        filter = new ContourFilter(newParameters, newWidth, newHeight, targetShape);
+        parameters = newParameters;
+        imageWidth = newWidth;
+        imageHeight = newHeight;
+      }
+      return filter;
+    }
+  }
+}
@@ -0,0 +1,65 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+// **************************************************************************
+// *
+// * Port Class
+// *
+// * A typed value passed between the stages of a StageGraph. The value is
+// * allocated once by the stage that writes it and updated in place. The
+// * version goes up every time the stage writes it, which is how the stages
+// * reading it know whether they need to run again.
+// *
+// **************************************************************************
+public final class Port<T> {
+
+  public final String name;
+  public final Class<T> type;
+
+  private T value;
+  private long version = 0;
+
+  public Port(String name, Class<T> type, T value) {
+    this.name = name;
+    this.type = type;
+    this.value = value;
+  }
+
+  public T get() {
+    return value;
+  }
+
+  public long version() {
+    return version;
+  }
+
+  // Mark the value as changed (after updating it in place)
+  public void changed() {
+    version++;
+  }
+
+  // Replace the value (e.g., the graph's source frame) and mark it changed
+  public void set(T newValue) {
+    value = newValue;
+    version++;
+  }
+
+  // **************************************************************************
+  // *
+  // * This port as a port of type U, if its values are U's
+  // *
+  // **************************************************************************
+  @SuppressWarnings("unchecked")
+  public <U> Port<U> as(Class<U> expected) {
+    if (!expected.isAssignableFrom(type)) {
+      throw new IllegalArgumentException(
+          "port '" + name + "' is a " + type.getSimpleName() + ", not a " + expected.getSimpleName());
+    }
+    return (Port<U>) this;
+  }
+}
@@ -0,0 +1,148 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.List;
+
+import org.opencv.core.Rect;
+
+// **************************************************************************
+// *
+// * RegionOfInterestTracker Class
+// *
+// * Once we've found a target pair, the strips will be in roughly the same
+// * place in the next frame, so there's no need to threshold and search the
+// * whole image. This class keeps a search region around the last target pair
+// * found, padded by a motion margin. If the target isn't found in the region
+// * for maxMisses frames in a row, we go back to searching the full frame.
+// *
+// * The region's edges are rounded out to a grid of ALIGN_PIXELS, so it only
+// * changes when the target has moved a few pixels. The pipeline keeps its
+// * views of the region until it does.
+// *
+// * Coordinates are in the pipeline's (resized) image space. The tracker is
+// * updated and read from the vision thread only.
+// *
+// **************************************************************************
+public final class RegionOfInterestTracker {
+
+  public static final int ALIGN_PIXELS = 8;
+
+  private int imageWidth;
+  private int imageHeight;
+  private final int minMarginPixels;
+  private final int maxMisses;
+
+  private final Rect region = new Rect();
+  private boolean active = false;
+  private int misses = 0;
+
+  // **************************************************************************
+  // *
+  // * minMarginPixels is the smallest margin added on each side of the target
+  // * pair. The margin also grows with the size of the pair, since a close
+  // * target moves more pixels per frame than a far one.
+  // *
+  // **************************************************************************
+  public RegionOfInterestTracker(int imageWidth, int imageHeight, int minMarginPixels, int maxMisses) {
+    this.imageWidth = imageWidth;
+    this.imageHeight = imageHeight;
+    this.minMarginPixels = minMarginPixels;
+    this.maxMisses = maxMisses;
+  }
+
+  // **************************************************************************
+  // *
+  // * Region to search in the next frame, or null to search the full frame
+  // *
+  // **************************************************************************
+  public Rect searchRegion() {
+    return active ? region : null;
+  }
+
+  // **************************************************************************
+  // *
+  // * Report the targets found in the current frame. These must be in full
+  // * frame coordinates.
+  // *
+  // **************************************************************************
+  public void track(List<Rect> targets) {
+    if (targets.isEmpty()) {
+      miss();
+      return;
+    }
+
+    int left = Integer.MAX_VALUE;
+    int top = Integer.MAX_VALUE;
+    int right = Integer.MIN_VALUE;
+    int bottom = Integer.MIN_VALUE;
+
+    for (int i = 0; i < targets.size(); i++) {
+      Rect target = targets.get(i);
+      left = Math.min(left, target.x);
+      top = Math.min(top, target.y);
+      right = Math.max(right, target.x + target.width);
+      bottom = Math.max(bottom, target.y + target.height);
+    }
+
+    int marginX = Math.max(minMarginPixels, (right - left) / 2);
+    int marginY = Math.max(minMarginPixels, (bottom - top) / 2);
+
+    left = Math.max(0, alignDown(left - marginX));
+    top = Math.max(0, alignDown(top - marginY));
+    right = Math.min(imageWidth, alignUp(right + marginX));
+    bottom = Math.min(imageHeight, alignUp(bottom + marginY));
+
+    region.x = left;
+    region.y = top;
+    region.width = right - left;
+    region.height = bottom - top;
+
+    active = (region.width > 0) && (region.height > 0);
+    misses = 0;
+  }
+
+  private static int alignDown(int value) {
+    return Math.floorDiv(value, ALIGN_PIXELS) * ALIGN_PIXELS;
+  }
+
+  private static int alignUp(int value) {
+    return alignDown(value + ALIGN_PIXELS - 1);
+  }
+
+  // **************************************************************************
+  // *
+  // * Report a frame where no target pair was found
+  // *
+  // **************************************************************************
+  public void miss() {
+    if (active && (++misses >= maxMisses)) {
+      reset();
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * The pipeline changed resolution, so the last region no longer applies
+  // *
+  // **************************************************************************
+  public void setImageSize(int imageWidth, int imageHeight) {
+    this.imageWidth = imageWidth;
+    this.imageHeight = imageHeight;
+    reset();
+  }
+
+  // **************************************************************************
+  // *
+  // * Go back to searching the full frame
+  // *
+  // **************************************************************************
+  public void reset() {
+    active = false;
+    misses = 0;
+  }
+}
@@ -0,0 +1,245 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Locale;
+
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.videoio.VideoCapture;
+import org.opencv.videoio.Videoio;
+
+// **************************************************************************
+// *
+// * Replay Class
+// *
+// * Runs the vision loop on recorded frames instead of a camera, so it can be
+// * tested and measured on a laptop or CI box:
+// *
+// *   Replay <image directory | video file> [--paced] [--fps <n>]
+// *          [--csv <file>] [--port <n>]
+// *
+// * Frames are read from a directory of images (in file name order) or from
+// * anything OpenCV's VideoCapture can open (e.g., an MJPEG or AVI file). Each
+// * frame goes through the same pipeline and analyzeFrame() as on the robot,
+// * publishing to a local NetworkTables server under "replay".
+// *
+// * By default frames are fed as fast as they can be processed. With --paced
+// * they're fed at the recorded frame rate (the video's, or --fps for an
+// * image directory, 30 by default), dropping none.
+// *
+// * At the end it prints the throughput and the per-stage latency
+// * percentiles, and writes a CSV with the result for every frame
+// * (replay.csv unless --csv says otherwise).
+// *
+// **************************************************************************
+public final class Replay {
+
+  public static final int DEFAULT_NT_PORT = 1735;
+  public static final String REPLAY_NETWORK_TABLE = "replay";
+
+  private static final String USAGE = "usage: Replay <image directory | video file> [--paced] [--fps <n>] "
+      + "[--csv <file>] [--port <n>]";
+
+  // Files in an image directory that are read as frames
+  private static final String[] IMAGE_EXTENSIONS = { ".png", ".jpg", ".jpeg", ".bmp", ".ppm", ".tif", ".tiff" };
+
+  private static final String CSV_HEADER = "frame,source,latencyMs,targetingState,pairFound,"
+      + "horizontalOffsetPixels,distanceInches,roundedDistanceInches,horizontalOffsetInches";
+
+  private Replay() {
+  }
+
+  // **************************************************************************
+  // *
+  // * Frames from either an image directory or a video file
+  // *
+  // **************************************************************************
+  private static final class FrameSource {
+    private final File[] images;
+    private final VideoCapture video;
+    private int next = 0;
+
+    FrameSource(File path) {
+      if (path.isDirectory()) {
+        // Only the images, e.g. not the results.csv or masks/ in a FrameRecorder dump
+        images = path.listFiles(file -> file.isFile() && isImage(file.getName()));
+        if (images == null) {
+          throw new IllegalArgumentException("could not read directory '" + path + "'");
+        }
+        Arrays.sort(images);
+        video = null;
+      } else {
+        images = null;
+        video = new VideoCapture(path.getPath());
+        if (!video.isOpened()) {
+          throw new IllegalArgumentException("could not open video '" + path + "'");
+        }
+      }
+    }
+
+    private static boolean isImage(String fileName) {
+      String lowerCase = fileName.toLowerCase(Locale.ROOT);
+      for (String extension : IMAGE_EXTENSIONS) {
+        if (lowerCase.endsWith(extension)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    // Recorded frame rate, or 0 if we don't know it
+    double frameRate() {
+      return (video != null) ? video.get(Videoio.CAP_PROP_FPS) : 0.0;
+    }
+
+    // Read the next frame into frame, returning its name or null at the end
+    String read(Mat frame) {
+      if (video != null) {
+        return video.read(frame) ? "frame " + (next++) : null;
+      }
+
+      while (next < images.length) {
+        File image = images[next++];
+        Mat decoded = Imgcodecs.imread(image.getPath());
+        if (!decoded.empty()) {
+          decoded.copyTo(frame);
+          decoded.release();
+          return image.getName();
+        }
+        decoded.release();
+      }
+      return null;
+    }
+
+    void close() {
+      if (video != null) {
+        video.release();
+      }
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Main Method
+  // *
+  // **************************************************************************
+  public static void main(String... args) throws FileNotFoundException {
+    if (args.length < 1) {
+      System.err.println(USAGE);
+      System.exit(1);
+    }
+
+    System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+    File path = new File(args[0]);
+    boolean paced = false;
+    double frameRate = 0.0;
+    String csvFile = "replay.csv";
+    int port = DEFAULT_NT_PORT;
+
+    for (int i = 1; i < args.length; i++) {
+      if ("--paced".equals(args[i])) {
+        paced = true;
+      } else if ("--fps".equals(args[i]) && (i + 1 < args.length)) {
+        frameRate = Double.parseDouble(args[++i]);
+      } else if ("--csv".equals(args[i]) && (i + 1 < args.length)) {
+        csvFile = args[++i];
+      } else if ("--port".equals(args[i]) && (i + 1 < args.length)) {
+        port = Integer.parseInt(args[++i]);
+      } else {
+        System.err.println("unknown argument '" + args[i] + "'");
+        System.exit(1);
+      }
+    }
+
+    FrameSource source;
+    try {
+      source = new FrameSource(path);
+    } catch (IllegalArgumentException ex) {
+      System.err.println(ex.getMessage());
+      System.err.println(USAGE);
+      System.exit(1);
+      return;
+    }
+
+    if (frameRate <= 0.0) {
+      frameRate = (source.frameRate() > 0.0) ? source.frameRate() : Main.DEFAULT_FRAME_RATE;
+    }
+
+    // Publish to a local server so dashboards (or the robot code in the
+    // simulator) can watch the replay
+    NetworkTableInstance ntinst = NetworkTableInstance.getDefault();
+    ntinst.startServer("networktables-replay.ini", "", port);
+
+    Main.VisionContext context = Main.createAnalysisContext(ntinst, REPLAY_NETWORK_TABLE, REPLAY_NETWORK_TABLE);
+    TargetPipeline pipeline = Main.createPipeline(context);
+
+    System.out.println("Replaying " + path + (paced ? " at " + frameRate + " fps" : " as fast as possible")
+        + ", publishing to " + context.networkTable.getPath() + " on port " + port);
+
+    PrintStream csv = new PrintStream(csvFile);
+    csv.println(CSV_HEADER);
+
+    Mat frame = new Mat();
+    long framePeriodNanos = (long) (1.0e9 / frameRate);
+    long startNanos = System.nanoTime();
+    long frameId = 0;
+    String name;
+
+    while ((name = source.read(frame)) != null) {
+
+      // Hold each frame back until its turn when playing at the recorded pace
+      if (paced) {
+        long due = startNanos + frameId * framePeriodNanos;
+        long wait = due - System.nanoTime();
+        if (wait > 0) {
+          try {
+            Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+          } catch (InterruptedException ex) {
+            break;
+          }
+        }
+      }
+
+      // The frame counts as captured once it's been read, just like a camera
+      // frame once it's been grabbed
+      long frameTime = NetworkTablesJNI.now();
+
+      pipeline.process(frame);
+      Main.analyzeFrame(context, pipeline, ++frameId, frameTime, context.result);
+
+      TargetingResult result = context.result;
+      double latencyMillis = (NetworkTablesJNI.now() - frameTime) / 1000.0;
+
+      csv.printf(Locale.ROOT, "%d,%s,%.3f,%d,%b,%.2f,%.2f,%d,%.2f%n", result.frameId, name, latencyMillis,
+          result.targetingState, result.pairFound, result.horizontalOffsetInPixels,
+          result.distanceToTargetInInches, result.roundedDistanceToTargetInInches, result.horizontalOffsetInInches);
+    }
+
+    double elapsedSeconds = (System.nanoTime() - startNanos) / 1.0e9;
+
+    csv.close();
+    source.close();
+    frame.release();
+
+    System.out.printf("%d frames in %.2f s, %.1f fps%n", frameId, elapsedSeconds,
+        (elapsedSeconds > 0.0) ? frameId / elapsedSeconds : 0.0);
+    context.metrics.print(System.out);
+    System.out.println("Per-frame results written to " + csvFile);
+
+    ntinst.stopServer();
+  }
+}
@@ -0,0 +1,120 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+// **************************************************************************
+// *
+// * ResolutionController Class
+// *
+// * Picks the resolution the pipeline processes at from how long frames are
+// * taking against a time budget. When the Pi has headroom we process at a
+// * higher resolution for more precise targets, when it doesn't (e.g., it's
+// * thermal throttling) we drop down to keep the frame rate.
+// *
+// * The processing time is averaged over a window of frames. We step down as
+// * soon as the average is over budget, and only step up when the average
+// * scaled up by the next level's pixel count still fits comfortably within
+// * the budget. After a change we wait a full window before judging the new
+// * level. Only the pipeline thread calls this, so it isn't synchronized.
+// *
+// **************************************************************************
+public final class ResolutionController {
+
+  private static final int[] WIDTHS = { 160, 320, 640 };
+  private static final int[] HEIGHTS = { 120, 240, 480 };
+
+  // Frames to average before making a decision
+  public static final int WINDOW_FRAMES = 30;
+
+  // Step up only if the next level is predicted to use at most this much of
+  // the budget
+  public static final double STEP_UP_HEADROOM = 0.75;
+
+  private final long budgetNanos;
+  private int level;
+  private int maxLevel = WIDTHS.length - 1;
+  private long windowNanos = 0;
+  private int windowFrames = 0;
+
+  // **************************************************************************
+  // *
+  // * Start at the level closest to width x height
+  // *
+  // **************************************************************************
+  public ResolutionController(double budgetMillis, int width, int height) {
+    this.budgetNanos = (long) (budgetMillis * 1.0e6);
+
+    level = 0;
+    for (int i = 0; i < WIDTHS.length; i++) {
+      if (Math.abs(WIDTHS[i] - width) < Math.abs(WIDTHS[level] - width)) {
+        level = i;
+      }
+    }
+  }
+
+  public int width() {
+    return WIDTHS[level];
+  }
+
+  public int height() {
+    return HEIGHTS[level];
+  }
+
+  // **************************************************************************
+  // *
+  // * Don't go above the camera's resolution, upscaling doesn't make the
+  // * targets any more precise
+  // *
+  // **************************************************************************
+  public void limitTo(int sourceWidth, int sourceHeight) {
+    int limit = 0;
+    for (int i = 1; i < WIDTHS.length; i++) {
+      if ((WIDTHS[i] <= sourceWidth) && (HEIGHTS[i] <= sourceHeight)) {
+        limit = i;
+      }
+    }
+
+    if (limit != maxLevel) {
+      maxLevel = limit;
+      if (level > maxLevel) {
+        level = maxLevel;
+      }
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Report how long a frame took to process at the current resolution
+  // *
+  // **************************************************************************
+  public void observe(long frameNanos) {
+    windowNanos += frameNanos;
+
+    if (++windowFrames < WINDOW_FRAMES) {
+      return;
+    }
+
+    long averageNanos = windowNanos / windowFrames;
+    windowNanos = 0;
+    windowFrames = 0;
+
+    if ((averageNanos > budgetNanos) && (level > 0)) {
+      setLevel(level - 1, averageNanos);
+    } else if (level < maxLevel) {
+      double pixelRatio = (WIDTHS[level + 1] * (double) HEIGHTS[level + 1]) / (WIDTHS[level] * (double) HEIGHTS[level]);
+      if (averageNanos * pixelRatio <= budgetNanos * STEP_UP_HEADROOM) {
+        setLevel(level + 1, averageNanos);
+      }
+    }
+  }
+
+  private void setLevel(int newLevel, long averageNanos) {
+    System.out.printf("Processing at %dx%d (%.1f ms per frame at %dx%d, budget %.1f ms)%n", WIDTHS[newLevel],
+        HEIGHTS[newLevel], averageNanos / 1.0e6, WIDTHS[level], HEIGHTS[level], budgetNanos / 1.0e6);
+    level = newLevel;
+  }
+}
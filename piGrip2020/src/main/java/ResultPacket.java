@@ -0,0 +1,69 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+// **************************************************************************
+// *
+// * ResultPacket Class
+// *
+// * Publishes a frame's whole targeting result as a single NetworkTables
+// * double array and flushes it straight away, so the robot can never read
+// * values from two different frames and doesn't have to wait for the next
+// * periodic NT update. The array layout is:
+// *
+// *   [0] frame id (counts up from 1 for each processed frame)
+// *   [1] capture time in microseconds (NetworkTables/cscore time base)
+// *   [2] latency from capture to publish in milliseconds
+// *   [3] targeting state (SEARCHING = 0, ACQUIRING = 1, LOCKED = 2)
+// *   [4] distance to target in inches (0 unless ACQUIRING or LOCKED)
+// *   [5] horizontal offset to target in inches (0 unless LOCKED)
+// *
+// **************************************************************************
+public final class ResultPacket {
+
+  public static final int FRAME_ID = 0;
+  public static final int CAPTURE_TIME = 1;
+  public static final int LATENCY = 2;
+  public static final int TARGETING_STATE = 3;
+  public static final int DISTANCE = 4;
+  public static final int HORIZONTAL_OFFSET = 5;
+  public static final int SIZE = 6;
+
+  private final NetworkTableInstance ntinst;
+  private final NetworkTableEntry entry;
+  private final double[] packet = new double[SIZE];
+
+  public ResultPacket(NetworkTableInstance ntinst, NetworkTableEntry entry) {
+    this.ntinst = ntinst;
+    this.entry = entry;
+  }
+
+  // **************************************************************************
+  // *
+  // * Publish a result and push it out to the robot immediately
+  // *
+  // **************************************************************************
+  public void publish(TargetingResult result) {
+    long now = NetworkTablesJNI.now();
+
+    packet[FRAME_ID] = result.frameId;
+    packet[CAPTURE_TIME] = result.frameTime;
+    packet[LATENCY] = (now - result.frameTime) / 1000.0;
+    packet[TARGETING_STATE] = result.targetingState;
+    packet[DISTANCE] = result.pairInRange ? result.distanceToTargetInInches : 0.0;
+    packet[HORIZONTAL_OFFSET] = (result.targetingState == Main.TARGETING_STATE_LOCKED)
+        ? result.horizontalOffsetInInches
+        : 0.0;
+
+    entry.setDoubleArray(packet);
+    ntinst.flush();
+  }
+}
@@ -0,0 +1,102 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+// **************************************************************************
+// *
+// * SceneChangeDetector Class
+// *
+// * Decides whether a frame is different enough from the last fully
+// * processed one to be worth processing. While the robot sits still (before
+// * the match, while shooting) the frames hardly change, and the pipeline can
+// * skip them and reuse its last result.
+// *
+// * Each frame is shrunk to a small signature (area averaged, so sensor noise
+// * mostly averages out) and compared cell by cell with the signature of the
+// * last processed frame. A target strip moving a couple of pixels changes
+// * the cells along its edges a lot, so the largest cell difference is used
+// * rather than the average. Comparing against the last processed frame,
+// * rather than the previous frame, means a slow drift is still caught once
+// * it adds up.
+// *
+// * A frame is always processed after refreshFrames skipped frames, so a
+// * change the signature misses can't go unnoticed for long.
+// *
+// **************************************************************************
+public final class SceneChangeDetector {
+
+  public static final int SIGNATURE_WIDTH = 32;
+  public static final int SIGNATURE_HEIGHT = 24;
+
+  // Largest change in any cell's value (0-255) that still counts as the same
+  // scene
+  public static final int MAX_CELL_DIFFERENCE = 4;
+
+  private static final Size SIGNATURE_SIZE = new Size(SIGNATURE_WIDTH, SIGNATURE_HEIGHT);
+
+  private final int refreshFrames;
+  private final Mat signatureImage = new Mat();
+  private byte[] signature = new byte[0];
+  private byte[] reference = new byte[0];
+  private boolean haveReference = false;
+  private int framesSinceRefresh = 0;
+  private long skippedFrames = 0;
+
+  public SceneChangeDetector(int refreshFrames) {
+    this.refreshFrames = refreshFrames;
+  }
+
+  // Frames skipped since the detector was created
+  public long skippedFrames() {
+    return skippedFrames;
+  }
+
+  // **************************************************************************
+  // *
+  // * Should this frame be processed? force is for when something other than
+  // * the frame has changed (e.g., the pipeline parameters), the frame is
+  // * then always processed and becomes the new reference.
+  // *
+  // **************************************************************************
+  public boolean hasChanged(Mat frame, boolean force) {
+    Imgproc.resize(frame, signatureImage, SIGNATURE_SIZE, 0, 0, Imgproc.INTER_AREA);
+
+    int length = (int) (signatureImage.total() * signatureImage.channels());
+    if (signature.length != length) {
+      signature = new byte[length];
+      reference = new byte[length];
+      haveReference = false;
+    }
+    signatureImage.get(0, 0, signature);
+
+    if (!force && haveReference && (framesSinceRefresh < refreshFrames) && isSameScene()) {
+      framesSinceRefresh++;
+      skippedFrames++;
+      return false;
+    }
+
+    byte[] previous = reference;
+    reference = signature;
+    signature = previous;
+    haveReference = true;
+    framesSinceRefresh = 0;
+    return true;
+  }
+
+  private boolean isSameScene() {
+    for (int i = 0; i < signature.length; i++) {
+      if (Math.abs((signature[i] & 0xFF) - (reference[i] & 0xFF)) > MAX_CELL_DIFFERENCE) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
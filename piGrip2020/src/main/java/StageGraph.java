@@ -0,0 +1,263 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import org.opencv.core.Mat;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+// **************************************************************************
+// *
+// * StageGraph Class
+// *
+// * A pipeline put together from PipelineStages by the "graph" pipeline key,
+// * instead of the fixed steps of the GRIP generated MyPipeline:
+// *
+// *   "graph": [
+// *       { "type": "resize", "name": "resize", "input": "frame" },
+// *       { "type": "threshold", "name": "threshold", "input": "resize", "stripes": 2 },
+// *       { "type": "blobs", "name": "blobs", "input": "threshold" }
+// *   ]
+// *
+// * Each stage's "input" names the port its (first) input reads: "frame" for
+// * the camera frame, a stage name for that stage's first output, or
+// * "<stage>.<output>" for another of its outputs. A stage with more than one
+// * input uses "inputs": { <input name>: <port>, ... } instead. A stage can
+// * only read the stages before it, so the stages run in the order they're
+// * listed, and the last one must output the blobs (filterContours or blobs).
+// * The port types are checked when the graph is built.
+// *
+// * A stage only runs when its inputs or the parameters it uses have changed
+// * since it last ran. With a SceneChangeDetector, the frame port is only
+// * updated when the scene has changed (or the parameters have), so the
+// * stages fed by it skip the frames in between. Each stage's timing is
+// * published under
+// * vision/metrics/<camera>/stages/<stage name> as [p50, p95, p99, max,
+// * count, skipped] (milliseconds).
+// *
+// **************************************************************************
+public final class StageGraph implements TargetPipeline {
+
+  public static final String FRAME_PORT = "frame";
+
+  private final Port<Mat> frame = new Port<>(FRAME_PORT, Mat.class, null);
+  private final List<PipelineStage> stages;
+  private final Port<PipelineStages.Blobs> output;
+  private Port<Mat> mask = null;
+  private final boolean foldsTargetShape;
+
+  private ParameterStore parameterStore = null;
+  private VisionParameters parameters = VisionParameters.DEFAULTS;
+  private SceneChangeDetector sceneChangeDetector = null;
+  private boolean reusedLastFrame = false;
+
+  private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+  private final double[] stageValues = new double[6];
+  private NetworkTableEntry[] stageEntries = null;
+
+  // **************************************************************************
+  // *
+  // * Build a graph from its config, throwing IllegalArgumentException if it
+  // * doesn't describe a valid graph
+  // *
+  // **************************************************************************
+  public StageGraph(JsonArray config) {
+    Map<String, PipelineStage> byName = new HashMap<>();
+    stages = new ArrayList<>();
+
+    for (JsonElement element : config) {
+      JsonObject stageConfig = element.getAsJsonObject();
+      PipelineStage stage = PipelineStages.create(stageConfig);
+
+      if (FRAME_PORT.equals(stage.name) || byName.containsKey(stage.name)) {
+        throw new IllegalArgumentException("duplicate stage name '" + stage.name + "'");
+      }
+
+      if (stageConfig.has("inputs")) {
+        JsonObject sources = stageConfig.getAsJsonObject("inputs");
+        for (PipelineStage.Input<?> input : stage.inputs()) {
+          if (!sources.has(input.name)) {
+            throw new IllegalArgumentException("stage '" + stage.name + "' has no source for '" + input.name + "'");
+          }
+          input.connect(findPort(byName, sources.get(input.name).getAsString()));
+        }
+      } else if (stageConfig.has("input") && (stage.inputs().size() == 1)) {
+        stage.inputs().get(0).connect(findPort(byName, stageConfig.get("input").getAsString()));
+      } else {
+        throw new IllegalArgumentException("stage '" + stage.name + "' needs "
+            + ((stage.inputs().size() == 1) ? "an \"input\"" : "\"inputs\""));
+      }
+
+      // The last threshold's output is the graph's mask
+      if (stage instanceof PipelineStages.Threshold) {
+        mask = stage.outputs().get(0).as(Mat.class);
+      }
+
+      byName.put(stage.name, stage);
+      stages.add(stage);
+    }
+
+    if (stages.isEmpty()) {
+      throw new IllegalArgumentException("graph has no stages");
+    }
+
+    PipelineStage last = stages.get(stages.size() - 1);
+    output = last.outputs().get(0).as(PipelineStages.Blobs.class);
+
+    // The blobs come from the last stage, so its filter decides this
+    if (last instanceof PipelineStages.FilterContours) {
+      foldsTargetShape = ((PipelineStages.FilterContours) last).foldsTargetShape();
+    } else if (last instanceof PipelineStages.ExtractBlobs) {
+      foldsTargetShape = ((PipelineStages.ExtractBlobs) last).foldsTargetShape();
+    } else {
+      foldsTargetShape = false;
+    }
+  }
+
+  private Port<?> findPort(Map<String, PipelineStage> byName, String source) {
+    if (FRAME_PORT.equals(source)) {
+      return frame;
+    }
+
+    int dot = source.indexOf('.');
+    String stageName = (dot < 0) ? source : source.substring(0, dot);
+    PipelineStage stage = byName.get(stageName);
+    if (stage == null) {
+      throw new IllegalArgumentException("no earlier stage named '" + stageName + "'");
+    }
+
+    if (dot < 0) {
+      return stage.outputs().get(0);
+    }
+
+    for (Port<?> port : stage.outputs()) {
+      if (port.name.equals(source)) {
+        return port;
+      }
+    }
+    throw new IllegalArgumentException("stage '" + stageName + "' has no output '" + source.substring(dot + 1) + "'");
+  }
+
+  // Use the store's parameters, picking up any changes at the start of a frame
+  public void setParameterStore(ParameterStore parameterStore) {
+    this.parameterStore = parameterStore;
+  }
+
+  // Skip frames that are the same as the last one processed, or null to
+  // process every frame
+  public void setSceneChangeDetector(SceneChangeDetector sceneChangeDetector) {
+    this.sceneChangeDetector = sceneChangeDetector;
+  }
+
+  // **************************************************************************
+  // *
+  // * Run every stage that needs to for the frame. When the scene hasn't
+  // * changed the frame port keeps its version, so only the stages whose
+  // * parameters changed run and the rest count the frame as skipped.
+  // *
+  // **************************************************************************
+  @Override
+  public void process(Mat source) {
+    boolean settingsChanged = false;
+    if (parameterStore != null) {
+      VisionParameters latest = parameterStore.get();
+      settingsChanged = (latest != parameters);
+      parameters = latest;
+    }
+
+    reusedLastFrame = (sceneChangeDetector != null) && (frame.get() != null)
+        && !sceneChangeDetector.hasChanged(source, settingsChanged);
+    if (!reusedLastFrame) {
+      frame.set(source);
+    }
+
+    for (int i = 0; i < stages.size(); i++) {
+      stages.get(i).run(parameters);
+    }
+  }
+
+  @Override
+  public List<ContourGeometry> filterContoursGeometry() {
+    return output.get().list;
+  }
+
+  @Override
+  public Mat rgbThresholdOutput() {
+    return (mask != null) ? mask.get() : null;
+  }
+
+  @Override
+  public VisionParameters parameters() {
+    return parameters;
+  }
+
+  @Override
+  public int processingWidth() {
+    return output.get().imageWidth;
+  }
+
+  @Override
+  public int processingHeight() {
+    return output.get().imageHeight;
+  }
+
+  @Override
+  public RegionOfInterestTracker regionOfInterest() {
+    return null;
+  }
+
+  @Override
+  public boolean reusedLastFrame() {
+    return reusedLastFrame;
+  }
+
+  @Override
+  public boolean foldsTargetShape() {
+    return foldsTargetShape;
+  }
+
+  public List<PipelineStage> stages() {
+    return stages;
+  }
+
+  // **************************************************************************
+  // *
+  // * Publish each stage's timing since the last time to the table
+  // *
+  // **************************************************************************
+  public void publishTimings(NetworkTable stagesTable) {
+    if (stageEntries == null) {
+      stageEntries = new NetworkTableEntry[stages.size()];
+      for (int i = 0; i < stages.size(); i++) {
+        stageEntries[i] = stagesTable.getEntry(stages.get(i).name);
+      }
+    }
+
+    for (int i = 0; i < stages.size(); i++) {
+      PipelineStage stage = stages.get(i);
+      stage.histogram().snapshotAndReset(snapshot);
+
+      stageValues[0] = snapshot.percentileMillis(50.0);
+      stageValues[1] = snapshot.percentileMillis(95.0);
+      stageValues[2] = snapshot.percentileMillis(99.0);
+      stageValues[3] = snapshot.maxMillis();
+      stageValues[4] = snapshot.count();
+      stageValues[5] = stage.skippedRuns();
+      stageEntries[i].setDoubleArray(stageValues);
+    }
+  }
+}
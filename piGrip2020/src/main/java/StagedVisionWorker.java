@@ -0,0 +1,180 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.cscore.CvSink;
+
+// **************************************************************************
+// *
+// * StagedVisionWorker Class
+// *
+// * Runs a camera's vision processing as four stages, each on its own
+// * thread, so that frame throughput is set by the slowest stage rather than
+// * the sum of all of them:
+// *
+// *   capture  - grab the frame from the camera, as often as the duty cycle
+// *              allows
+// *   process  - run the pipeline, analyse the targets, publish to NT
+// *   annotate - draw the overlay on the frame (when it's being watched)
+// *   publish  - put the frame on the overlay stream (JPEG encode)
+// *
+// * Stages pass preallocated frame slots to each other through FrameQueues.
+// * When a stage falls behind, the oldest waiting frame is dropped, so the
+// * NetworkTables results never wait on the JPEG encoder.
+// *
+// **************************************************************************
+public final class StagedVisionWorker {
+
+  private final Main.VisionContext context;
+  private final TargetPipeline pipeline;
+  private final CvSink cvSink;
+
+  private final FrameQueue freeSlots;
+  private final FrameQueue processQueue;
+  private final FrameQueue annotateQueue;
+  private final FrameQueue publishQueue;
+
+  private long nextFrameId = 0;
+
+  @FunctionalInterface
+  private interface StageLoop {
+    void runOnce() throws InterruptedException;
+  }
+
+  public StagedVisionWorker(Main.VisionContext context, TargetPipeline pipeline, int queueCapacity) {
+    this.context = context;
+    this.pipeline = pipeline;
+
+    cvSink = new CvSink("StagedVisionWorker CvSink " + context.name);
+    cvSink.setSource(context.camera);
+
+    processQueue = new FrameQueue(queueCapacity);
+    annotateQueue = new FrameQueue(queueCapacity);
+    publishQueue = new FrameQueue(queueCapacity);
+
+    // Enough slots to fill every queue with one more in each stage, so the
+    // capture stage never has to wait for a free slot.
+    int slotCount = 3 * queueCapacity + 5;
+    freeSlots = new FrameQueue(slotCount);
+
+    for (int i = 0; i < slotCount; i++) {
+      freeSlots.put(new FrameSlot());
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Start all of the stage threads. The process stage is pinned to the
+  // * context's core, the lighter stages are left to the scheduler.
+  // *
+  // **************************************************************************
+  public void start() {
+    startStage("capture", -1, this::capture);
+    startStage("process", context.cpuCore, this::process);
+    startStage("annotate", -1, this::annotate);
+    startStage("publish", -1, this::publish);
+  }
+
+  public int processQueueDepth() {
+    return processQueue.depth();
+  }
+
+  public int annotateQueueDepth() {
+    return annotateQueue.depth();
+  }
+
+  public int publishQueueDepth() {
+    return publishQueue.depth();
+  }
+
+  // Total frames dropped between stages
+  public long droppedFrames() {
+    return processQueue.dropped() + annotateQueue.dropped() + publishQueue.dropped();
+  }
+
+  private void capture() throws InterruptedException {
+    // Throttled (or stopped) when the robot doesn't need every frame
+    context.dutyCycle.awaitNextFrame();
+
+    FrameSlot slot = freeSlots.take();
+
+    // A frame time of zero means the grab failed (e.g., the camera was unplugged)
+    long frameTime = cvSink.grabFrame(slot.frame);
+
+    if (frameTime == 0) {
+      System.err.println("Frame grab failed on '" + context.name + "': " + cvSink.getError());
+      recycle(slot);
+      return;
+    }
+
+    slot.frameId = ++nextFrameId;
+    slot.frameTime = frameTime;
+    recycle(processQueue.put(slot));
+  }
+
+  private void process() throws InterruptedException {
+    FrameSlot slot = processQueue.take();
+
+    pipeline.process(slot.frame);
+    Main.analyzeFrame(context, pipeline, slot.frameId, slot.frameTime, slot.result);
+    Main.recordFrame(context, pipeline, slot.frame, slot.result);
+
+    // Skip the overlay stages entirely when nobody is watching
+    if (!context.overlay.shouldRender()) {
+      recycle(slot);
+      return;
+    }
+
+    recycle(annotateQueue.put(slot));
+  }
+
+  private void annotate() throws InterruptedException {
+    FrameSlot slot = annotateQueue.take();
+
+    long start = System.nanoTime();
+    Main.drawOverlay(slot.frame, slot.result, context.overlay);
+    context.metrics.record(VisionMetrics.OVERLAY, start);
+
+    recycle(publishQueue.put(slot));
+  }
+
+  private void publish() throws InterruptedException {
+    FrameSlot slot = publishQueue.take();
+
+    // This is where the JPEG encode for the overlay stream happens
+    long start = System.nanoTime();
+    context.outputStream.putFrame(slot.frame);
+    context.metrics.record(VisionMetrics.PUT_FRAME, start);
+
+    recycle(slot);
+  }
+
+  private void recycle(FrameSlot slot) {
+    if (slot != null) {
+      freeSlots.put(slot);
+    }
+  }
+
+  private void startStage(String stageName, int cpuCore, StageLoop loop) {
+    Thread thread = new Thread(() -> {
+      if (cpuCore >= 0) {
+        CpuAffinity.pinCurrentThread(cpuCore);
+      }
+
+      try {
+        while (!Thread.interrupted()) {
+          loop.runOnce();
+        }
+      } catch (InterruptedException ex) {
+        // Stage stopped
+      }
+    }, "StagedVisionWorker " + context.name + " " + stageName);
+
+    thread.setDaemon(true);
+    thread.start();
+  }
+}
@@ -0,0 +1,101 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+// **************************************************************************
+// *
+// * SyntheticFrames Class
+// *
+// * Draws camera-like BGR frames with vision tape strips on them, for when we
+// * need frames to run the pipeline on without a camera (benchmarks, warming
+// * up the pipeline). The strips alternate / \ / \ from the left, sized and
+// * angled like the real ones (~-75 and ~-15 degree rotated rectangles) and
+// * bright enough to pass the pipeline's RGB threshold, with the gap between
+// * the middle / \ pair on the centre of the image.
+// *
+// * Frames are reproducible: the same arguments always draw the same frame.
+// *
+// **************************************************************************
+public final class SyntheticFrames {
+
+  // Strip colour (BGR), inside the pipeline's RGB threshold
+  private static final Scalar STRIP_COLOR = new Scalar(235.0, 245.0, 225.0);
+
+  // A dim, slightly green background like the LED ring gives us indoors
+  private static final Scalar BACKGROUND_COLOR = new Scalar(40.0, 60.0, 35.0);
+
+  // Pixels per inch of tape at 320 pixels wide, about what we see from 3 feet
+  private static final double PIXELS_PER_INCH_AT_320 = 4.0;
+
+  // Distance between neighbouring strip centres, in inches
+  private static final double STRIP_PITCH_INCHES = 11.0;
+
+  private SyntheticFrames() {
+  }
+
+  // **************************************************************************
+  // *
+  // * Draw a frame with stripCount strips and gaussian noise with the given
+  // * standard deviation (0 for a clean frame)
+  // *
+  // **************************************************************************
+  public static Mat create(int width, int height, int stripCount, double noise) {
+    Mat frame = new Mat(height, width, CvType.CV_8UC3, BACKGROUND_COLOR);
+
+    double scale = PIXELS_PER_INCH_AT_320 * width / 320.0;
+    double pitch = STRIP_PITCH_INCHES * scale;
+
+    // The first / \ gap to the right of the middle strip straddles the centre
+    int centreStrip = (stripCount / 2) | 1;
+
+    for (int i = 0; i < stripCount; i++) {
+      Point center = new Point(width / 2.0 + (i - centreStrip + 0.5) * pitch, height / 2.0);
+
+      // Even strips lean right (/), odd strips lean left (\)
+      RotatedRect strip;
+      if ((i % 2) == 0) {
+        strip = new RotatedRect(center,
+            new Size(Main.TARGET_HEIGHT_INCHES * scale, Main.TARGET_WIDTH_INCHES * scale), Main.TARGET_HIGH_ANGLE);
+      } else {
+        strip = new RotatedRect(center,
+            new Size(Main.TARGET_WIDTH_INCHES * scale, Main.TARGET_HEIGHT_INCHES * scale), Main.TARGET_LOW_ANGLE);
+      }
+
+      Point[] corners = new Point[4];
+      strip.points(corners);
+      MatOfPoint polygon = new MatOfPoint(corners);
+      Imgproc.fillConvexPoly(frame, polygon, STRIP_COLOR);
+      polygon.release();
+    }
+
+    if (noise > 0.0) {
+      Mat noiseImage = new Mat(height, width, CvType.CV_16SC3);
+      Core.setRNGSeed(width * 31 + stripCount);
+      Core.randn(noiseImage, 0.0, noise);
+
+      Mat noisy = new Mat();
+      frame.convertTo(noisy, CvType.CV_16SC3);
+      Core.add(noisy, noiseImage, noisy);
+      noisy.convertTo(frame, CvType.CV_8UC3);
+
+      noisy.release();
+      noiseImage.release();
+    }
+
+    return frame;
+  }
+}
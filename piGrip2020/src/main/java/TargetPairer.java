@@ -0,0 +1,207 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+
+// **************************************************************************
+// *
+// * TargetPairer Class
+// *
+// * Picks the vision target pair out of any number of candidate strips. The
+// * candidates are sorted left to right once, then every neighbouring pair
+// * is scored in a single pass:
+// *
+// *   - orientation: the left strip must lean right and the right strip
+// *     must lean left, i.e. "/ \"
+// *   - size: the two strips must be about the same height
+// *   - spacing: the gap between their centres must be about what the real
+// *     target's spacing is for strips of that height
+// *
+// * Of the pairs that pass, the one whose centre is nearest the centre of
+// * the image wins. Only neighbours can be a pair, a strip between two others
+// * always belongs to one of them. Every pair that passes is also kept, with
+// * a confidence from 0 to 1 for how well its size and spacing match, for
+// * when the robot wants to choose between targets itself.
+// *
+// * The candidate arrays are kept from frame to frame and only grow, so a
+// * frame doesn't allocate anything once the arrays are big enough for the
+// * most strips we've seen.
+// *
+// **************************************************************************
+public final class TargetPairer {
+
+  // Smallest ratio of the shorter strip's height to the taller one's
+  public static final double MIN_SIZE_SIMILARITY = 0.5;
+
+  // Centre to centre spacing of the strips, as a multiple of their height in
+  // the image. A strip's bounding box is taller than the strip because it's
+  // tilted.
+  public static final double EXPECTED_SPACING = Main.TARGET_SEPARATION_INCHES
+      / ((Main.TARGET_HEIGHT_INCHES * Math.cos(Math.toRadians(Main.TARGET_LOW_ANGLE)))
+          + (Main.TARGET_WIDTH_INCHES * Math.abs(Math.sin(Math.toRadians(Main.TARGET_LOW_ANGLE)))));
+  public static final double SPACING_TOLERANCE = 0.5;
+
+  private static final int LEANS_RIGHT = 1; // "/" (the high angle strip)
+  private static final int LEANS_LEFT = 2; // "\" (the low angle strip)
+
+  // Sort keys (x in the high word, candidate index in the low word) and the
+  // candidates' measurements in sorted order
+  private long[] order = new long[0];
+  private double[] centerX = new double[0];
+  private double[] height = new double[0];
+  private int[] lean = new int[0];
+  private int[] index = new int[0];
+
+  private int left = -1;
+  private int right = -1;
+
+  // Every pair that passed, left to right
+  private int pairCount = 0;
+  private double[] pairLeftX = new double[0];
+  private double[] pairRightX = new double[0];
+  private double[] pairHeight = new double[0];
+  private double[] pairConfidence = new double[0];
+
+  // Indexes (into the candidate lists) of the pair found by the last call
+  public int left() {
+    return left;
+  }
+
+  public int right() {
+    return right;
+  }
+
+  public int pairCount() {
+    return pairCount;
+  }
+
+  // Centre x of each strip and their average height, in pixels
+  public double pairLeftX(int pair) {
+    return pairLeftX[pair];
+  }
+
+  public double pairRightX(int pair) {
+    return pairRightX[pair];
+  }
+
+  public double pairHeight(int pair) {
+    return pairHeight[pair];
+  }
+
+  public double pairConfidence(int pair) {
+    return pairConfidence[pair];
+  }
+
+  // Centre x of a strip's bounding box, the same for every pair we report
+  public static double centerX(Rect rect) {
+    return rect.x + (rect.width / 2.0);
+  }
+
+  // Forget the pairs from the last frame (e.g., when nothing got as far as
+  // being paired)
+  public void clear() {
+    left = -1;
+    right = -1;
+    pairCount = 0;
+  }
+
+  // **************************************************************************
+  // *
+  // * Find the best pair among the candidates. The lists hold each strip's
+  // * bounding box and rotated rectangle at the same index, and are left as
+  // * they are.
+  // *
+  // **************************************************************************
+  public boolean pair(List<Rect> targets, List<RotatedRect> targetRects, VisionParameters parameters,
+      double imageWidth) {
+    clear();
+
+    int count = targets.size();
+    if (count < 2) {
+      return false;
+    }
+
+    ensureCapacity(count);
+
+    for (int i = 0; i < count; i++) {
+      order[i] = ((long) targets.get(i).x << 32) | i;
+    }
+    Arrays.sort(order, 0, count);
+
+    for (int i = 0; i < count; i++) {
+      int candidate = (int) order[i];
+      Rect rect = targets.get(candidate);
+      double angle = targetRects.get(candidate).angle;
+
+      index[i] = candidate;
+      centerX[i] = centerX(rect);
+      height[i] = rect.height;
+      lean[i] = parameters.isHighAngle(angle) ? LEANS_RIGHT : (parameters.isLowAngle(angle) ? LEANS_LEFT : 0);
+    }
+
+    double imageCenter = imageWidth / 2.0;
+    double bestDistance = Double.MAX_VALUE;
+
+    for (int i = 0; i < count - 1; i++) {
+      int j = i + 1;
+
+      if ((lean[i] != LEANS_RIGHT) || (lean[j] != LEANS_LEFT)) {
+        continue;
+      }
+
+      double shorter = Math.min(height[i], height[j]);
+      double taller = Math.max(height[i], height[j]);
+      if ((taller <= 0.0) || (shorter / taller < MIN_SIZE_SIMILARITY)) {
+        continue;
+      }
+
+      double averageHeight = (height[i] + height[j]) / 2.0;
+      double spacingError = Math.abs(((centerX[j] - centerX[i]) / averageHeight) - EXPECTED_SPACING)
+          / (EXPECTED_SPACING * SPACING_TOLERANCE);
+      if (spacingError > 1.0) {
+        continue;
+      }
+
+      pairLeftX[pairCount] = centerX[i];
+      pairRightX[pairCount] = centerX[j];
+      pairHeight[pairCount] = averageHeight;
+      pairConfidence[pairCount] = (shorter / taller) * (1.0 - spacingError);
+      pairCount++;
+
+      double distance = Math.abs(((centerX[i] + centerX[j]) / 2.0) - imageCenter);
+      if (distance < bestDistance) {
+        bestDistance = distance;
+        left = index[i];
+        right = index[j];
+      }
+    }
+
+    return left >= 0;
+  }
+
+  private void ensureCapacity(int count) {
+    if (order.length >= count) {
+      return;
+    }
+
+    int capacity = Math.max(count, order.length * 2);
+    order = new long[capacity];
+    centerX = new double[capacity];
+    height = new double[capacity];
+    lean = new int[capacity];
+    index = new int[capacity];
+    pairLeftX = new double[capacity];
+    pairRightX = new double[capacity];
+    pairHeight = new double[capacity];
+    pairConfidence = new double[capacity];
+  }
+}
@@ -0,0 +1,49 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.List;
+
+import org.opencv.core.Mat;
+
+import edu.wpi.first.vision.VisionPipeline;
+
+// **************************************************************************
+// *
+// * TargetPipeline Interface
+// *
+// * What Main needs from a pipeline to analyse its output: the geometry of
+// * the blobs that passed the filter and the settings they were found with.
+// * MyPipeline (the GRIP pipeline) and StageGraph (built from the config)
+// * both implement it, so either can be run by the vision workers.
+// *
+// **************************************************************************
+public interface TargetPipeline extends VisionPipeline {
+
+  // The blobs that passed the filter in the last frame processed
+  List<ContourGeometry> filterContoursGeometry();
+
+  // The threshold mask of the last frame processed, or null if there isn't one
+  Mat rgbThresholdOutput();
+
+  // The parameters the last frame was processed with
+  VisionParameters parameters();
+
+  // The size of the image the geometry is in
+  int processingWidth();
+
+  int processingHeight();
+
+  // The region of interest tracker, or null if there isn't one
+  RegionOfInterestTracker regionOfInterest();
+
+  // Whether the last frame was skipped and the outputs are from an earlier one
+  boolean reusedLastFrame();
+
+  // Whether the filter already rejected blobs without a target strip's shape
+  boolean foldsTargetShape();
+}
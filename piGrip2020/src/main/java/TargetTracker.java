@@ -0,0 +1,236 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import edu.wpi.first.networktables.NetworkTableEntry;
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+// **************************************************************************
+// *
+// * TargetTracker Class
+// *
+// * Smooths the distance and horizontal offset measured in each frame with a
+// * constant velocity Kalman filter, and publishes an estimate predicted to
+// * the current time at a fixed rate from its own thread. The drive code gets
+// * a smooth signal at a much higher rate than we process frames, and the
+// * prediction also makes up for the latency between capture and publish.
+// *
+// * Distance and offset are filtered independently. Measurements are stamped
+// * with the frame's capture time, so a dropped or skipped frame just means a
+// * longer step between measurements. The track is dropped once there hasn't
+// * been a measurement for TRACK_TIMEOUT_MICROS.
+// *
+// * The predicted estimate is published as a double array:
+// *
+// *   [0] time of the estimate in microseconds (NetworkTables time base)
+// *   [1] 1 if the target is being tracked, 0 if not (the rest are then 0)
+// *   [2] distance to target in inches
+// *   [3] horizontal offset to target in inches
+// *   [4] rate of change of the distance in inches per second
+// *   [5] rate of change of the offset in inches per second
+// *   [6] age of the last measurement in milliseconds
+// *
+// **************************************************************************
+public final class TargetTracker {
+
+  public static final int TIME = 0;
+  public static final int TRACKING = 1;
+  public static final int DISTANCE = 2;
+  public static final int HORIZONTAL_OFFSET = 3;
+  public static final int DISTANCE_RATE = 4;
+  public static final int HORIZONTAL_OFFSET_RATE = 5;
+  public static final int AGE = 6;
+  public static final int SIZE = 7;
+
+  // Standard deviations of the measurement noise (inches) and of the target's
+  // acceleration relative to the camera (inches per second squared)
+  public static final double DISTANCE_NOISE_INCHES = 1.0;
+  public static final double OFFSET_NOISE_INCHES = 0.5;
+  public static final double ACCELERATION_NOISE = 40.0;
+
+  // Uncertainty of the velocity when a new track starts
+  public static final double INITIAL_RATE_NOISE = 50.0;
+
+  public static final long TRACK_TIMEOUT_MICROS = 500000;
+
+  private final Axis distance = new Axis(DISTANCE_NOISE_INCHES);
+  private final Axis offset = new Axis(OFFSET_NOISE_INCHES);
+  private boolean tracking = false;
+  private long lastMeasurementMicros = 0;
+
+  // Owned by the publishing thread
+  private final double[] packet = new double[SIZE];
+
+  // **************************************************************************
+  // *
+  // * Add the measurements from a frame's result. Only LOCKED results have
+  // * an offset, so an ACQUIRING result in range just updates the distance.
+  // *
+  // **************************************************************************
+  public synchronized void update(TargetingResult result) {
+    if (!result.pairInRange) {
+      return;
+    }
+
+    long time = result.frameTime;
+
+    if (tracking && (time - lastMeasurementMicros > TRACK_TIMEOUT_MICROS)) {
+      tracking = false;
+    }
+
+    boolean hasOffset = (result.targetingState == Main.TARGETING_STATE_LOCKED);
+
+    if (!tracking) {
+      // Wait for a full measurement to start a track
+      if (!hasOffset) {
+        return;
+      }
+      distance.reset(result.distanceToTargetInInches);
+      offset.reset(result.horizontalOffsetInInches);
+      tracking = true;
+      lastMeasurementMicros = time;
+      return;
+    }
+
+    // Results from the pipeline's threads can arrive slightly out of order,
+    // an older measurement than the state isn't worth going back for
+    if (time <= lastMeasurementMicros) {
+      return;
+    }
+
+    double dt = (time - lastMeasurementMicros) / 1.0e6;
+    distance.predict(dt);
+    offset.predict(dt);
+
+    distance.correct(result.distanceToTargetInInches);
+    if (hasOffset) {
+      offset.correct(result.horizontalOffsetInInches);
+    }
+
+    lastMeasurementMicros = time;
+  }
+
+  // **************************************************************************
+  // *
+  // * Fill in a packet with the estimate predicted to a time. Returns false
+  // * (and zeros) if there's no track at that time.
+  // *
+  // **************************************************************************
+  public synchronized boolean predict(long timeMicros, double[] estimate) {
+    long ageMicros = timeMicros - lastMeasurementMicros;
+
+    estimate[TIME] = timeMicros;
+
+    if (!tracking || (ageMicros > TRACK_TIMEOUT_MICROS)) {
+      tracking = false;
+      for (int i = TRACKING; i < SIZE; i++) {
+        estimate[i] = 0.0;
+      }
+      return false;
+    }
+
+    double dt = Math.max(ageMicros, 0) / 1.0e6;
+
+    estimate[TRACKING] = 1.0;
+    estimate[DISTANCE] = distance.position + (distance.rate * dt);
+    estimate[HORIZONTAL_OFFSET] = offset.position + (offset.rate * dt);
+    estimate[DISTANCE_RATE] = distance.rate;
+    estimate[HORIZONTAL_OFFSET_RATE] = offset.rate;
+    estimate[AGE] = ageMicros / 1000.0;
+    return true;
+  }
+
+  // **************************************************************************
+  // *
+  // * Start a thread that publishes the predicted estimate at a fixed rate
+  // *
+  // **************************************************************************
+  public Thread startPublishing(String name, NetworkTableInstance ntinst, NetworkTableEntry entry, double rateHz) {
+    long periodNanos = (long) (1.0e9 / rateHz);
+
+    Thread thread = new Thread(() -> {
+      long nextNanos = System.nanoTime();
+
+      for (;;) {
+        predict(NetworkTablesJNI.now(), packet);
+        entry.setDoubleArray(packet);
+        ntinst.flush();
+
+        // Keep to the fixed rate rather than drifting by the publish time
+        nextNanos += periodNanos;
+        long sleepNanos = nextNanos - System.nanoTime();
+        if (sleepNanos < 0) {
+          nextNanos = System.nanoTime();
+          continue;
+        }
+
+        try {
+          Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+        } catch (InterruptedException ex) {
+          return;
+        }
+      }
+    }, name + " tracker");
+
+    thread.setDaemon(true);
+    thread.start();
+    return thread;
+  }
+
+  // **************************************************************************
+  // *
+  // * One coordinate's position and rate, and their covariance
+  // *
+  // **************************************************************************
+  private static final class Axis {
+    private final double measurementVariance;
+
+    double position;
+    double rate;
+    private double p00;
+    private double p01;
+    private double p11;
+
+    Axis(double measurementNoise) {
+      this.measurementVariance = measurementNoise * measurementNoise;
+    }
+
+    void reset(double measurement) {
+      position = measurement;
+      rate = 0.0;
+      p00 = measurementVariance;
+      p01 = 0.0;
+      p11 = INITIAL_RATE_NOISE * INITIAL_RATE_NOISE;
+    }
+
+    // Move the state forward dt seconds, with the acceleration as noise
+    void predict(double dt) {
+      double q = ACCELERATION_NOISE * ACCELERATION_NOISE;
+      double dt2 = dt * dt;
+
+      position += rate * dt;
+      p00 += (dt * (2.0 * p01 + dt * p11)) + (q * dt2 * dt2 / 4.0);
+      p01 += (dt * p11) + (q * dt2 * dt / 2.0);
+      p11 += q * dt2;
+    }
+
+    void correct(double measurement) {
+      double s = p00 + measurementVariance;
+      double k0 = p00 / s;
+      double k1 = p01 / s;
+      double innovation = measurement - position;
+
+      position += k0 * innovation;
+      rate += k1 * innovation;
+
+      p11 -= k1 * p01;
+      p01 -= k0 * p01;
+      p00 -= k0 * p00;
+    }
+  }
+}
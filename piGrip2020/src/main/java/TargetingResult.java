@@ -0,0 +1,87 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import org.opencv.core.Rect;
+
+// **************************************************************************
+// *
+// * TargetingResult Class
+// *
+// * The outcome of analysing one frame: the targeting state plus everything
+// * the overlay needs to draw it. Results are preallocated (one per frame
+// * slot) and overwritten for every frame.
+// *
+// **************************************************************************
+public final class TargetingResult {
+
+  // Which frame this is the result for
+  public long frameId;
+  public long frameTime;
+
+  // Size of the image the pipeline processed, all the pixel values below are
+  // in this image
+  public int imageWidth = (int) MyPipeline.RESIZE_IMAGE_WIDTH;
+  public int imageHeight = (int) MyPipeline.RESIZE_IMAGE_HEIGHT;
+
+  public int targetingState = Main.TARGETING_STATE_SEARCHING;
+
+  // A pair of correctly oriented strips was found (i.e., we're ACQUIRING)
+  public boolean pairFound;
+  public final Rect leftTarget = new Rect();
+  public final Rect rightTarget = new Rect();
+
+  // The pair is close enough together to calculate distance and offset
+  public boolean pairInRange;
+  public double contour1CenterXInPixels;
+  public double contour2CenterXInPixels;
+  public double horizontalOffsetInPixels;
+  public double distanceToTargetInInches;
+
+  // Only valid when the targeting state is LOCKED
+  public int roundedDistanceToTargetInInches;
+  public double horizontalOffsetInInches;
+
+  public void clear() {
+    frameId = 0;
+    frameTime = 0;
+    targetingState = Main.TARGETING_STATE_SEARCHING;
+    pairFound = false;
+    pairInRange = false;
+    contour1CenterXInPixels = 0.0;
+    contour2CenterXInPixels = 0.0;
+    horizontalOffsetInPixels = 0.0;
+    distanceToTargetInInches = 0.0;
+    roundedDistanceToTargetInInches = 0;
+    horizontalOffsetInInches = 0.0;
+  }
+
+  // Copy another frame's result, frame id and time included
+  public void copyFrom(TargetingResult other) {
+    frameId = other.frameId;
+    frameTime = other.frameTime;
+    imageWidth = other.imageWidth;
+    imageHeight = other.imageHeight;
+    targetingState = other.targetingState;
+    pairFound = other.pairFound;
+    leftTarget.x = other.leftTarget.x;
+    leftTarget.y = other.leftTarget.y;
+    leftTarget.width = other.leftTarget.width;
+    leftTarget.height = other.leftTarget.height;
+    rightTarget.x = other.rightTarget.x;
+    rightTarget.y = other.rightTarget.y;
+    rightTarget.width = other.rightTarget.width;
+    rightTarget.height = other.rightTarget.height;
+    pairInRange = other.pairInRange;
+    contour1CenterXInPixels = other.contour1CenterXInPixels;
+    contour2CenterXInPixels = other.contour2CenterXInPixels;
+    horizontalOffsetInPixels = other.horizontalOffsetInPixels;
+    distanceToTargetInInches = other.distanceToTargetInInches;
+    roundedDistanceToTargetInInches = other.roundedDistanceToTargetInInches;
+    horizontalOffsetInInches = other.horizontalOffsetInInches;
+  }
+}
@@ -0,0 +1,147 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.io.PrintStream;
+
+import edu.wpi.first.networktables.NetworkTable;
+import edu.wpi.first.networktables.NetworkTableEntry;
+
+// **************************************************************************
+// *
+// * VisionMetrics Class
+// *
+// * Per-stage timing for one camera's vision worker. Each MyPipeline step and
+// * each phase of Main's frame handling records its duration into its own
+// * LatencyHistogram. publish() is called periodically and writes each
+// * stage's p50, p95, p99 and max (in ms) plus its sample count to the
+// * vision/metrics/<camera> table, along with the frame rate.
+// *
+// **************************************************************************
+public final class VisionMetrics {
+
+  // MyPipeline steps
+  public static final int RESIZE = 0;
+  public static final int THRESHOLD = 1;
+  public static final int FIND_CONTOURS = 2;
+  public static final int FILTER_CONTOURS = 3;
+
+  // Main phases
+  public static final int CLASSIFY_TARGETS = 4;
+  public static final int ANALYZE_TARGETS = 5;
+  public static final int DISTANCE = 6;
+  public static final int NT_PUBLISH = 7;
+  public static final int OVERLAY = 8;
+  public static final int PUT_FRAME = 9;
+
+  // Whole frame, from capture to the result being published
+  public static final int FRAME = 10;
+
+  // Copying a frame into the FrameRecorder
+  public static final int RECORD = 11;
+
+  private static final String[] STAGE_NAMES = { "resize", "threshold", "findContours", "filterContours",
+      "classifyTargets", "analyzeTargets", "distance", "ntPublish", "overlay", "putFrame", "frame",
+      "record" };
+
+  private final LatencyHistogram[] histograms = new LatencyHistogram[STAGE_NAMES.length];
+  private final LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+  private final NetworkTableEntry[] stageEntries = new NetworkTableEntry[STAGE_NAMES.length];
+  private final NetworkTableEntry fpsEntry;
+  private final NetworkTableEntry queueDepthsEntry;
+  private final double[] stageValues = new double[5];
+  private final double[] queueDepths = new double[4];
+
+  private long lastPublishNanos = System.nanoTime();
+
+  public VisionMetrics(NetworkTable metricsTable) {
+    for (int i = 0; i < STAGE_NAMES.length; i++) {
+      histograms[i] = new LatencyHistogram();
+      stageEntries[i] = metricsTable.getEntry(STAGE_NAMES[i]);
+    }
+    fpsEntry = metricsTable.getEntry("fps");
+    queueDepthsEntry = metricsTable.getEntry("queueDepths");
+  }
+
+  // **************************************************************************
+  // *
+  // * Record the time since startNanos against a stage and return the current
+  // * time, so consecutive stages can be timed with one nanoTime() call each
+  // *
+  // **************************************************************************
+  public long record(int stage, long startNanos) {
+    long now = System.nanoTime();
+    histograms[stage].recordNanos(now - startNanos);
+    return now;
+  }
+
+  public void recordNanos(int stage, long nanos) {
+    histograms[stage].recordNanos(nanos);
+  }
+
+  // **************************************************************************
+  // *
+  // * Publish the stats gathered since the last call and start over. Each
+  // * stage's entry is [p50, p95, p99, max, count].
+  // *
+  // **************************************************************************
+  public void publish() {
+    long now = System.nanoTime();
+    double elapsedSeconds = (now - lastPublishNanos) / 1.0e9;
+    lastPublishNanos = now;
+
+    for (int i = 0; i < STAGE_NAMES.length; i++) {
+      histograms[i].snapshotAndReset(snapshot);
+
+      stageValues[0] = snapshot.percentileMillis(50.0);
+      stageValues[1] = snapshot.percentileMillis(95.0);
+      stageValues[2] = snapshot.percentileMillis(99.0);
+      stageValues[3] = snapshot.maxMillis();
+      stageValues[4] = snapshot.count();
+      stageEntries[i].setDoubleArray(stageValues);
+
+      if ((i == FRAME) && (elapsedSeconds > 0.0)) {
+        fpsEntry.setDouble(snapshot.count() / elapsedSeconds);
+      }
+    }
+  }
+
+  // **************************************************************************
+  // *
+  // * Publish a staged worker's queue depths as [process, annotate, publish,
+  // * total dropped frames]
+  // *
+  // **************************************************************************
+  public void publishQueueDepths(StagedVisionWorker worker) {
+    queueDepths[0] = worker.processQueueDepth();
+    queueDepths[1] = worker.annotateQueueDepth();
+    queueDepths[2] = worker.publishQueueDepth();
+    queueDepths[3] = worker.droppedFrames();
+    queueDepthsEntry.setDoubleArray(queueDepths);
+  }
+
+  // **************************************************************************
+  // *
+  // * Print the stats gathered since the last call as a table and start over.
+  // * Stages that weren't run are left out.
+  // *
+  // **************************************************************************
+  public void print(PrintStream out) {
+    out.printf("%-16s %8s %8s %8s %8s %8s%n", "stage (ms)", "p50", "p95", "p99", "max", "count");
+
+    for (int i = 0; i < STAGE_NAMES.length; i++) {
+      histograms[i].snapshotAndReset(snapshot);
+
+      if (snapshot.count() == 0) {
+        continue;
+      }
+
+      out.printf("%-16s %8.3f %8.3f %8.3f %8.3f %8d%n", STAGE_NAMES[i], snapshot.percentileMillis(50.0),
+          snapshot.percentileMillis(95.0), snapshot.percentileMillis(99.0), snapshot.maxMillis(), snapshot.count());
+    }
+  }
+}
@@ -0,0 +1,184 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.Arrays;
+
+// **************************************************************************
+// *
+// * VisionParameters Class
+// *
+// * The tunable numbers of the vision loop: the pipeline's RGB threshold and
+// * contour filter limits, and the angle and aspect ratio that make a contour
+// * look like a vision tape strip. An instance never changes, a new one is
+// * made with with() for every change. That lets a ParameterStore swap them
+// * between frames while a frame in progress keeps using the set it started
+// * with.
+// *
+// * Each parameter has an id and a name, which is its key in the config file
+// * and in NetworkTables. Limits in pixels are for a REFERENCE_IMAGE_WIDTH
+// * wide image and are scaled to the resolution the pipeline processes at.
+// *
+// **************************************************************************
+public final class VisionParameters {
+
+  // RGB threshold
+  public static final int RED_MIN = 0;
+  public static final int RED_MAX = 1;
+  public static final int GREEN_MIN = 2;
+  public static final int GREEN_MAX = 3;
+  public static final int BLUE_MIN = 4;
+  public static final int BLUE_MAX = 5;
+
+  // Contour filter
+  public static final int MIN_AREA = 6;
+  public static final int MIN_PERIMETER = 7;
+  public static final int MIN_WIDTH = 8;
+  public static final int MAX_WIDTH = 9;
+  public static final int MIN_HEIGHT = 10;
+  public static final int MAX_HEIGHT = 11;
+  public static final int MIN_SOLIDITY = 12;
+  public static final int MAX_SOLIDITY = 13;
+  public static final int MAX_VERTICES = 14;
+  public static final int MIN_VERTICES = 15;
+  public static final int MIN_RATIO = 16;
+  public static final int MAX_RATIO = 17;
+
+  // Target strip shape
+  public static final int LOW_ANGLE = 18;
+  public static final int HIGH_ANGLE = 19;
+  public static final int ANGLE_TOLERANCE = 20;
+  public static final int ASPECT_RATIO_TOLERANCE = 21;
+
+  private static final String[] NAMES = { "redMin", "redMax", "greenMin", "greenMax", "blueMin", "blueMax", "minArea",
+      "minPerimeter", "minWidth", "maxWidth", "minHeight", "maxHeight", "minSolidity", "maxSolidity", "maxVertices",
+      "minVertices", "minRatio", "maxRatio", "lowAngle", "highAngle", "angleTolerance", "aspectRatioTolerance" };
+
+  public static final int COUNT = NAMES.length;
+
+  public static final double REFERENCE_IMAGE_WIDTH = 320.0;
+
+  // The values the pipeline was tuned to in GRIP, and the target shape we
+  // measured on the field
+  public static final VisionParameters DEFAULTS = new VisionParameters(new double[] {
+      192.2073858121868, 254.58148653161132, 233.90287769784172, 255.0, 213.00042699652138, 254.73603850731277,
+      0.0, 0.0, 0.0, 1000.0, 10.0, 100.0, 0.0, 100.0, 1000000.0, 0.0, 0.0, 10000.0,
+      Main.TARGET_LOW_ANGLE, Main.TARGET_HIGH_ANGLE, Main.TARGET_ANGLE_TOLERANCE_IN_DEGREES,
+      Main.TARGET_ASPECT_RATIO_TOLERANCE });
+
+  private final double[] values;
+
+  // Derived once here rather than on every frame
+  private final double[] red;
+  private final double[] green;
+  private final double[] blue;
+  private final double[] solidity;
+  private final double lowAngleMin;
+  private final double lowAngleMax;
+  private final double highAngleMin;
+  private final double highAngleMax;
+  private final double lowAngleRatioMin;
+  private final double lowAngleRatioMax;
+  private final double highAngleRatioMin;
+  private final double highAngleRatioMax;
+
+  private VisionParameters(double[] values) {
+    this.values = values;
+
+    red = new double[] { values[RED_MIN], values[RED_MAX] };
+    green = new double[] { values[GREEN_MIN], values[GREEN_MAX] };
+    blue = new double[] { values[BLUE_MIN], values[BLUE_MAX] };
+    solidity = new double[] { values[MIN_SOLIDITY], values[MAX_SOLIDITY] };
+
+    lowAngleMin = values[LOW_ANGLE] - values[ANGLE_TOLERANCE];
+    lowAngleMax = values[LOW_ANGLE] + values[ANGLE_TOLERANCE];
+    highAngleMin = values[HIGH_ANGLE] - values[ANGLE_TOLERANCE];
+    highAngleMax = values[HIGH_ANGLE] + values[ANGLE_TOLERANCE];
+
+    // For the high angle (i.e., the ~-75 degree vision strip), the rotated
+    // rectangle's width and height are swapped, so the aspect ratio is too
+    double lowAngleRatio = Main.TARGET_HEIGHT_INCHES / Main.TARGET_WIDTH_INCHES;
+    double highAngleRatio = Main.TARGET_WIDTH_INCHES / Main.TARGET_HEIGHT_INCHES;
+    lowAngleRatioMin = lowAngleRatio - (lowAngleRatio * values[ASPECT_RATIO_TOLERANCE]);
+    lowAngleRatioMax = lowAngleRatio + (lowAngleRatio * values[ASPECT_RATIO_TOLERANCE]);
+    highAngleRatioMin = highAngleRatio - (highAngleRatio * values[ASPECT_RATIO_TOLERANCE]);
+    highAngleRatioMax = highAngleRatio + (highAngleRatio * values[ASPECT_RATIO_TOLERANCE]);
+  }
+
+  public static String name(int id) {
+    return NAMES[id];
+  }
+
+  // Parameter id for a name, or -1 if there isn't one
+  public static int id(String name) {
+    for (int i = 0; i < COUNT; i++) {
+      if (NAMES[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public double get(int id) {
+    return values[id];
+  }
+
+  // **************************************************************************
+  // *
+  // * A copy of these parameters with one of them changed
+  // *
+  // **************************************************************************
+  public VisionParameters with(int id, double value) {
+    if (values[id] == value) {
+      return this;
+    }
+    double[] copy = Arrays.copyOf(values, COUNT);
+    copy[id] = value;
+    return new VisionParameters(copy);
+  }
+
+  // The [min, max] arrays the pipeline steps take. These are shared, so they
+  // must not be modified.
+  public double[] red() {
+    return red;
+  }
+
+  public double[] green() {
+    return green;
+  }
+
+  public double[] blue() {
+    return blue;
+  }
+
+  public double[] solidity() {
+    return solidity;
+  }
+
+  // **************************************************************************
+  // *
+  // * Does a rotated rectangle have the angle and aspect ratio of a low angle
+  // * (~-15 degree) or high angle (~-75 degree) vision tape strip?
+  // *
+  // **************************************************************************
+  public boolean isTargetShape(double rotatedAngle, double rectAspectRatio) {
+    if (isLowAngle(rotatedAngle)) {
+      return (rectAspectRatio >= lowAngleRatioMin) && (rectAspectRatio <= lowAngleRatioMax);
+    } else if (isHighAngle(rotatedAngle)) {
+      return (rectAspectRatio >= highAngleRatioMin) && (rectAspectRatio <= highAngleRatioMax);
+    }
+    return false;
+  }
+
+  public boolean isLowAngle(double rotatedAngle) {
+    return (rotatedAngle >= lowAngleMin) && (rotatedAngle <= lowAngleMax);
+  }
+
+  public boolean isHighAngle(double rotatedAngle) {
+    return (rotatedAngle >= highAngleMin) && (rotatedAngle <= highAngleMax);
+  }
+}
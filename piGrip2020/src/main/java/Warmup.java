@@ -0,0 +1,142 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.wpi.first.networktables.NetworkTableInstance;
+import edu.wpi.first.networktables.NetworkTablesJNI;
+
+import org.opencv.core.Mat;
+
+// **************************************************************************
+// *
+// * Warmup Class
+// *
+// * Until the JIT has compiled the pipeline and the target analysis, the
+// * first few hundred frames run interpreted and are several times slower
+// * than the rest, and those are the frames we see in autonomous. At startup
+// * we push synthetic frames through the same pipeline and analysis code
+// * until the time per frame stops improving, so that the real frames start
+// * out fast.
+// *
+// * The warm-up runs on its own thread while the cameras and NetworkTables
+// * start. It publishes to a private NetworkTables instance, so nothing it
+// * finds is ever seen by the robot.
+// *
+// **************************************************************************
+public final class Warmup extends Thread {
+
+  // Frames are timed in batches, and we're warm once the average time of a
+  // batch has stayed within STABLE_TOLERANCE of the previous one for
+  // STABLE_BATCHES batches in a row
+  public static final int BATCH_FRAMES = 50;
+  public static final double STABLE_TOLERANCE = 0.05;
+  public static final int STABLE_BATCHES = 3;
+
+  // Always run at least MIN_FRAMES, but give up after MAX_FRAMES or
+  // MAX_MILLIS in case the times never settle (e.g., the Pi is busy)
+  public static final int MIN_FRAMES = 500;
+  public static final int MAX_FRAMES = 5000;
+  public static final long MAX_MILLIS = 20000;
+
+  private volatile boolean stable = false;
+  private volatile int framesRun = 0;
+
+  public Warmup() {
+    super("Warmup");
+    setDaemon(true);
+  }
+
+  public boolean isStable() {
+    return stable;
+  }
+
+  public int framesRun() {
+    return framesRun;
+  }
+
+  // **************************************************************************
+  // *
+  // * Wait for the warm-up to finish
+  // *
+  // **************************************************************************
+  public void await() {
+    try {
+      join();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public void run() {
+    long startNanos = System.nanoTime();
+
+    // The pipeline loads OpenCV, so it has to come before the frames
+    NetworkTableInstance ntinst = NetworkTableInstance.create();
+    Main.VisionContext context = Main.createAnalysisContext(ntinst, "warmup", "warmup");
+    TargetPipeline pipeline = Main.createPipeline(context);
+
+    // A mix of frames so every branch gets compiled: no targets, a pair, a
+    // pair with an extra strip, two pairs, with and without noise, at the
+    // camera resolutions we use
+    List<Mat> frames = new ArrayList<>();
+    int[] stripCounts = { 0, 2, 3, 4 };
+    for (int stripCount : stripCounts) {
+      frames.add(SyntheticFrames.create(320, 240, stripCount, 0.0));
+      frames.add(SyntheticFrames.create(640, 480, stripCount, 8.0));
+    }
+
+    double firstBatchMillis = 0.0;
+    double previousBatchMillis = 0.0;
+    double batchMillis = 0.0;
+    int stableBatches = 0;
+    int frameCount = 0;
+
+    while ((frameCount < MAX_FRAMES) && ((System.nanoTime() - startNanos) / 1000000 < MAX_MILLIS)) {
+      long batchStart = System.nanoTime();
+
+      for (int i = 0; i < BATCH_FRAMES; i++) {
+        // Hold each frame for a few frames so the region of interest tracking
+        // gets to lock on, like it does with a real camera
+        Mat frame = frames.get((frameCount / 8) % frames.size());
+        pipeline.process(frame);
+        Main.analyzeFrame(context, pipeline, ++frameCount, NetworkTablesJNI.now(), context.result);
+      }
+
+      batchMillis = (System.nanoTime() - batchStart) / 1.0e6 / BATCH_FRAMES;
+      if (firstBatchMillis == 0.0) {
+        firstBatchMillis = batchMillis;
+      }
+
+      if ((previousBatchMillis > 0.0)
+          && (Math.abs(batchMillis - previousBatchMillis) <= previousBatchMillis * STABLE_TOLERANCE)) {
+        stableBatches++;
+      } else {
+        stableBatches = 0;
+      }
+      previousBatchMillis = batchMillis;
+      framesRun = frameCount;
+
+      if ((stableBatches >= STABLE_BATCHES) && (frameCount >= MIN_FRAMES)) {
+        stable = true;
+        break;
+      }
+    }
+
+    System.out.printf("Warm-up %s after %d frames in %d ms, %.2f ms per frame (first %d: %.2f ms)%n",
+        stable ? "stable" : "stopped", frameCount, (System.nanoTime() - startNanos) / 1000000, batchMillis,
+        BATCH_FRAMES, firstBatchMillis);
+
+    for (Mat frame : frames) {
+      frame.release();
+    }
+    ntinst.close();
+  }
+}
@@ -0,0 +1,118 @@
+
+/*----------------------------------------------------------------------------*/
+/* Copyright (c) 2018 FIRST. All Rights Reserved.                             */
+/* Open Source Software - may be modified and shared by FRC teams. The code   */
+/* must be accompanied by the FIRST BSD license file in the root directory of */
+/* the project.                                                               */
+/*----------------------------------------------------------------------------*/
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+// **************************************************************************
+// *
+// * MyPipelineAllocationTest Class
+// *
+// * Checks that a warmed up pipeline doesn't allocate on the Java heap per
+// * frame, by reading the thread's allocated byte count around a batch of
+// * process() calls on the same synthetic frame.
+// *
+// * The one exclusion is Imgproc.findContours. Its Java wrapper allocates a
+// * Mat for the native result, a list and an int[] to unpack it, and a Mat
+// * and a MatOfPoint (each with a finalizer) for every contour. None of that
+// * can be reused from outside OpenCV, so the contour engine is only held to
+// * that allowance. The blob engine doesn't call findContours and has to
+// * allocate nothing at all.
+// *
+// * The parallel threshold (rowRange headers per stripe) isn't covered.
+// *
+// **************************************************************************
+public class MyPipelineAllocationTest {
+
+  private static final int WARMUP_FRAMES = 2000;
+  private static final int MEASURED_FRAMES = 200;
+
+  // What Imgproc.findContours' wrapper allocates, with room for the JVM's
+  // object layout and the finalizer registrations
+  private static final long FIND_CONTOURS_BYTES_PER_FRAME = 512;
+  private static final long FIND_CONTOURS_BYTES_PER_CONTOUR = 256;
+
+  private final Mat frame = SyntheticFrames.create(320, 240, 2, 0.0);
+
+  @Test
+  public void blobEngineAllocatesNothingPerFrame() {
+    MyPipeline pipeline = new MyPipeline(true);
+    pipeline.setBlobExtractor(new BlobExtractor());
+
+    long bytesPerFrame = allocatedBytesPerFrame(pipeline);
+
+    Assert.assertEquals("bytes allocated per frame", 0, bytesPerFrame);
+  }
+
+  @Test
+  public void searchRegionAllocatesNothingPerFrame() {
+    MyPipeline pipeline = new MyPipeline(true);
+    pipeline.setBlobExtractor(new BlobExtractor());
+    pipeline.enableRegionOfInterest(8, 5);
+
+    // Lock onto the targets, the region then stays put while they do
+    pipeline.process(frame);
+    List<Rect> targets = new ArrayList<>();
+    for (ContourGeometry geometry : pipeline.filterContoursGeometry()) {
+      targets.add(geometry.boundingRect());
+    }
+    pipeline.regionOfInterest().track(targets);
+
+    long bytesPerFrame = allocatedBytesPerFrame(pipeline);
+
+    Assert.assertTrue("should be searching a region", pipeline.regionOfInterest().searchRegion() != null);
+    Assert.assertEquals("bytes allocated per frame", 0, bytesPerFrame);
+  }
+
+  @Test
+  public void contourEngineOnlyAllocatesInFindContours() {
+    MyPipeline pipeline = new MyPipeline(true);
+
+    long bytesPerFrame = allocatedBytesPerFrame(pipeline);
+    long contours = pipeline.findContoursOutput().size();
+    long allowance = FIND_CONTOURS_BYTES_PER_FRAME + contours * FIND_CONTOURS_BYTES_PER_CONTOUR;
+
+    Assert.assertTrue("allocated " + bytesPerFrame + " bytes per frame for " + contours
+        + " contours, more than findContours' " + allowance, bytesPerFrame <= allowance);
+  }
+
+  // **************************************************************************
+  // *
+  // * Run the pipeline until it's warmed up, then measure what a batch of
+  // * frames allocates. Less than a byte a frame (e.g., a one-off allocation
+  // * inside the JVM) rounds to zero.
+  // *
+  // **************************************************************************
+  private long allocatedBytesPerFrame(MyPipeline pipeline) {
+    com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long threadId = Thread.currentThread().getId();
+
+    for (int i = 0; i < WARMUP_FRAMES; i++) {
+      pipeline.process(frame);
+    }
+    Assert.assertTrue("the synthetic frame should have targets", !pipeline.filterContoursGeometry().isEmpty());
+
+    // Reading the counter can allocate too, so take that off
+    long start = threads.getThreadAllocatedBytes(threadId);
+    long overhead = threads.getThreadAllocatedBytes(threadId) - start;
+
+    start = threads.getThreadAllocatedBytes(threadId);
+    for (int i = 0; i < MEASURED_FRAMES; i++) {
+      pipeline.process(frame);
+    }
+    long allocated = threads.getThreadAllocatedBytes(threadId) - start - overhead;
+
+    return Math.max(0, allocated) / MEASURED_FRAMES;
+  }
+}